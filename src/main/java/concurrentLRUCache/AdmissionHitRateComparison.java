@@ -0,0 +1,103 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 14:05
+ * Compare the hit rate of plain LRU with the W-TinyLFU admission mode of {@link GenericConcurrentLRUCache}
+ *
+ * <p>
+ * 1. Zipfian trace: a skewed popularity where a few keys take most of the requests
+ * 2. Scan-heavy trace: the same Zipfian requests interleaved with long scans of keys that are used only once,
+ * plain LRU lets every scan flush the hot set while the admission filter rejects the one-hit keys
+ * <p>
+ * Every request is a get, and a miss is followed by a put, just like a cache in front of a backend
+ */
+@Slf4j
+public class AdmissionHitRateComparison {
+
+    private static final int KEY_SPACE = 100_000;
+    private static final int REQUESTS = 2_000_000;
+    private static final double SKEW = 0.99;
+
+    public static void main(String[] args) {
+        int[] zipfian = zipfianTrace(new Random(42));
+        int[] scanHeavy = scanHeavyTrace(new Random(42));
+
+        for (int capacity : new int[]{500, 2_000, 10_000}) {
+            log.info("capacity: {}, zipfian -> lru: {}%, tinyLfu: {}%", capacity,
+                    hitRate(zipfian, capacity, false), hitRate(zipfian, capacity, true));
+            log.info("capacity: {}, scan-heavy -> lru: {}%, tinyLfu: {}%", capacity,
+                    hitRate(scanHeavy, capacity, false), hitRate(scanHeavy, capacity, true));
+        }
+    }
+
+    private static String hitRate(int[] trace, int capacity, boolean admission) {
+        GenericConcurrentLRUCache<Integer, Integer> cache = GenericConcurrentLRUCache.<Integer, Integer>builder()
+                .capacity(capacity)
+                .admission(admission)
+                .build();
+        long hits = 0;
+        for (int key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return String.format("%.2f", hits * 100.0 / trace.length);
+    }
+
+    static int[] zipfianTrace(Random random) {
+        double[] cumulative = zipfianCumulative();
+        int[] trace = new int[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            trace[i] = nextZipfian(cumulative, random);
+        }
+        return trace;
+    }
+
+    /**
+     * Every 100k Zipfian requests are followed by a scan of 20k keys that never show up again
+     */
+    static int[] scanHeavyTrace(Random random) {
+        double[] cumulative = zipfianCumulative();
+        int[] trace = new int[REQUESTS];
+        // The scattered Zipfian keys are non-negative, so negative scan keys never collide with them
+        int scanKey = -1;
+        int i = 0;
+        while (i < REQUESTS) {
+            for (int j = 0; j < 100_000 && i < REQUESTS; j++) {
+                trace[i++] = nextZipfian(cumulative, random);
+            }
+            for (int j = 0; j < 20_000 && i < REQUESTS; j++) {
+                trace[i++] = scanKey--;
+            }
+        }
+        return trace;
+    }
+
+    private static double[] zipfianCumulative() {
+        double[] cumulative = new double[KEY_SPACE];
+        double sum = 0;
+        for (int rank = 1; rank <= KEY_SPACE; rank++) {
+            sum += 1.0 / Math.pow(rank, SKEW);
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < KEY_SPACE; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int nextZipfian(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        // Scatter the ranks so that the popular keys are not the small integers
+        int rank = index >= 0 ? index : -index - 1;
+        return (rank * 0x9E3779B9) & Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,92 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 17:20
+ * Compare the per-key cost of the bulk operations of {@link GenericConcurrentLRUCache} with looping over the single-key methods
+ *
+ * <p>
+ * Every request handler thread fetches a batch of keys, and puts back the ones that are missing, like a cache in front of a backend
+ */
+@Slf4j
+public class BulkOperationsBenchmark {
+
+    private static final int CAPACITY = 10_000;
+    private static final int KEY_SPACE = 12_000;
+    private static final int BATCHES_PER_THREAD = 5_000;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int batchSize : new int[]{50, 200, 500}) {
+            // Warm up both paths first, the JIT needs a few rounds before the bulk methods are compiled
+            for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+                run(threads, batchSize, false);
+                run(threads, batchSize, true);
+            }
+            double single = run(threads, batchSize, false);
+            double bulk = run(threads, batchSize, true);
+            log.info("threads: {}, batch: {}, single-key loop: {} ns/key, bulk: {} ns/key",
+                    threads, batchSize, String.format("%.1f", single), String.format("%.1f", bulk));
+        }
+    }
+
+    private static double run(int threads, int batchSize, boolean bulk) throws InterruptedException {
+        GenericConcurrentLRUCache<Integer, Integer> cache = new GenericConcurrentLRUCache<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put(i, i);
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<Integer> keys = new ArrayList<>(batchSize);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int b = 0; b < BATCHES_PER_THREAD; b++) {
+                    keys.clear();
+                    for (int i = 0; i < batchSize; i++) {
+                        keys.add(random.nextInt(KEY_SPACE));
+                    }
+                    if (bulk) {
+                        Map<Integer, Integer> found = cache.getAll(keys);
+                        Map<Integer, Integer> missing = new HashMap<>();
+                        for (Integer key : keys) {
+                            if (!found.containsKey(key)) {
+                                missing.put(key, key);
+                            }
+                        }
+                        cache.putAll(missing);
+                    } else {
+                        for (Integer key : keys) {
+                            if (cache.get(key) == null) {
+                                cache.put(key, key);
+                            }
+                        }
+                    }
+                }
+                done.countDown();
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executorService.shutdown();
+        return (double) elapsed / ((long) threads * BATCHES_PER_THREAD * batchSize);
+    }
+}
@@ -0,0 +1,109 @@
+package concurrentLRUCache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 16:30
+ * A lock-free, fixed size histogram of the sampled cache operation latencies, with log-linear buckets
+ *
+ * <p>
+ * 1. The values 0 to 7 have a bucket each, every higher power of two is split into 8 linear sub-buckets,
+ * so a recorded value is off by at most 12.5%, and 488 buckets cover the whole non-negative range of a long
+ * 2. Recording is one atomic increment of a bucket, nothing is allocated
+ * 3. snapshot() copies the buckets into an immutable Snapshot for the percentile queries
+ */
+public final class CacheLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Long.MAX_VALUE falls into ((62 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + 7, the last bucket
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        buckets.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * The smallest value that falls into the bucket
+     */
+    static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    /**
+     * An immutable copy of the histogram
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @param percentile in [0, 100]
+         * @return the lowest value of the bucket holding the percentile, 0 if nothing has been recorded
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return lowestValueOf(i);
+                }
+            }
+            return lowestValueOf(counts.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Latency{" +
+                    "count=" + count +
+                    ", p50=" + percentile(50) +
+                    ", p99=" + percentile(99) +
+                    ", p99.9=" + percentile(99.9) +
+                    ", max=" + percentile(100) +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package concurrentLRUCache;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 19:05
+ * Converts the keys or values of {@link GenericConcurrentLRUCache} to bytes and back, for the snapshot file
+ *
+ * <p>
+ * 1. sizeOf is called first so the writer can reserve the exact number of bytes, then write fills them in
+ * 2. read gets back exactly the bytes that were written, so a serializer does not need to store its own length
+ */
+public interface CacheSerializer<T> {
+
+    int sizeOf(T value);
+
+    void write(T value, MutableDirectBuffer buffer, int offset);
+
+    T read(DirectBuffer buffer, int offset, int length);
+
+    static CacheSerializer<Integer> integers() {
+        return new CacheSerializer<Integer>() {
+            @Override
+            public int sizeOf(Integer value) {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void write(Integer value, MutableDirectBuffer buffer, int offset) {
+                buffer.putInt(offset, value, ByteOrder.LITTLE_ENDIAN);
+            }
+
+            @Override
+            public Integer read(DirectBuffer buffer, int offset, int length) {
+                return buffer.getInt(offset, ByteOrder.LITTLE_ENDIAN);
+            }
+        };
+    }
+
+    static CacheSerializer<Long> longs() {
+        return new CacheSerializer<Long>() {
+            @Override
+            public int sizeOf(Long value) {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void write(Long value, MutableDirectBuffer buffer, int offset) {
+                buffer.putLong(offset, value, ByteOrder.LITTLE_ENDIAN);
+            }
+
+            @Override
+            public Long read(DirectBuffer buffer, int offset, int length) {
+                return buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN);
+            }
+        };
+    }
+
+    /**
+     * UTF-8, the string is encoded twice (sizeOf and write), which is fine for the background snapshot
+     */
+    static CacheSerializer<String> strings() {
+        return new CacheSerializer<String>() {
+            @Override
+            public int sizeOf(String value) {
+                return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+
+            @Override
+            public void write(String value, MutableDirectBuffer buffer, int offset) {
+                buffer.putStringWithoutLengthUtf8(offset, value);
+            }
+
+            @Override
+            public String read(DirectBuffer buffer, int offset, int length) {
+                return buffer.getStringWithoutLengthUtf8(offset, length);
+            }
+        };
+    }
+
+    static CacheSerializer<byte[]> bytes() {
+        return new CacheSerializer<byte[]>() {
+            @Override
+            public int sizeOf(byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            public void write(byte[] value, MutableDirectBuffer buffer, int offset) {
+                buffer.putBytes(offset, value);
+            }
+
+            @Override
+            public byte[] read(DirectBuffer buffer, int offset, int length) {
+                byte[] value = new byte[length];
+                buffer.getBytes(offset, value);
+                return value;
+            }
+        };
+    }
+}
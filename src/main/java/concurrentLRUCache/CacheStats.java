@@ -0,0 +1,118 @@
+package concurrentLRUCache;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 16:30
+ * An immutable snapshot of the statistics of a cache
+ */
+public final class CacheStats {
+
+    private static final CacheStats EMPTY = new CacheStats(0, 0, 0, new EnumMap<>(RemovalCause.class),
+            0, 0, 0, new CacheLatencyHistogram().snapshot(), new CacheLatencyHistogram().snapshot());
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final Map<RemovalCause, Long> evictionCounts;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTimeNanos;
+    private final CacheLatencyHistogram.Snapshot getLatency;
+    private final CacheLatencyHistogram.Snapshot putLatency;
+
+    CacheStats(long hitCount, long missCount, long putCount, Map<RemovalCause, Long> evictionCounts,
+               long loadSuccessCount, long loadFailureCount, long totalLoadTimeNanos,
+               CacheLatencyHistogram.Snapshot getLatency, CacheLatencyHistogram.Snapshot putLatency) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCounts = Collections.unmodifiableMap(new EnumMap<>(evictionCounts));
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.getLatency = getLatency;
+        this.putLatency = putLatency;
+    }
+
+    public static CacheStats empty() {
+        return EMPTY;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long putCount() {
+        return putCount;
+    }
+
+    public long evictionCount(RemovalCause cause) {
+        return evictionCounts.getOrDefault(cause, 0L);
+    }
+
+    public long evictionCount() {
+        long total = 0;
+        for (long count : evictionCounts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long totalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    public double averageLoadPenaltyNanos() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) totalLoadTimeNanos / loadCount;
+    }
+
+    public CacheLatencyHistogram.Snapshot getLatency() {
+        return getLatency;
+    }
+
+    public CacheLatencyHistogram.Snapshot putLatency() {
+        return putLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", hitRate=" + String.format("%.4f", hitRate()) +
+                ", putCount=" + putCount +
+                ", evictionCounts=" + evictionCounts +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", totalLoadTimeNanos=" + totalLoadTimeNanos +
+                ", getLatency=" + getLatency +
+                ", putLatency=" + putLatency +
+                '}';
+    }
+}
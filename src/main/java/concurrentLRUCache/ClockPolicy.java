@@ -0,0 +1,84 @@
+package concurrentLRUCache;
+
+import java.util.function.Consumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * CLOCK (second chance)
+ *
+ * <p>
+ * 1. The nodes form a ring with a hand, a new node is inserted just behind the hand so it is the last one the hand reaches
+ * 2. A hit only sets the visited bit of the node, nothing is relinked, so the readers need no lock
+ * 3. To find a victim the hand goes round, clearing the visited bits, and stops at the first node that has not been visited
+ */
+final class ClockPolicy<N extends PolicyNode> extends LinkedPolicy<N> {
+
+    private PolicyNode hand;
+
+    @Override
+    public void onInsert(N node) {
+        node.visited = false;
+        linkBefore(hand != null ? hand : sentinel, node);
+    }
+
+    @Override
+    public void onAccess(N node) {
+        node.markVisited();
+    }
+
+    @Override
+    public void onRemove(N node) {
+        if (hand == node) {
+            hand = node.next == sentinel ? sentinel.next : node.next;
+        }
+        unlink(node);
+        if (isEmpty()) {
+            hand = null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public N victim() {
+        if (isEmpty()) {
+            return null;
+        }
+        PolicyNode node = hand != null ? hand : sentinel.next;
+        while (true) {
+            if (node == sentinel) {
+                node = sentinel.next;
+            } else if (node.visited) {
+                node.visited = false;
+                node = node.next;
+            } else {
+                hand = node;
+                return (N) node;
+            }
+        }
+    }
+
+    /**
+     * Starts at the hand and goes round once, ignoring the visited bits
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super N> action) {
+        if (hand == null) {
+            super.forEach(action);
+            return;
+        }
+        PolicyNode node = hand;
+        do {
+            if (node != sentinel) {
+                action.accept((N) node);
+            }
+            node = node.next;
+        } while (node != hand);
+    }
+
+    @Override
+    public boolean reordersOnAccess() {
+        return false;
+    }
+}
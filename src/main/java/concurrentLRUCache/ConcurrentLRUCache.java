@@ -2,11 +2,22 @@ package concurrentLRUCache;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * @author lzn
@@ -22,44 +33,148 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * Rules: Put the frequent used data into the end of the bidirectionalLinkedList, and the LRU data into the beginning of the bidirectionalLinkedList
  * <p>
  * Functional:
- * 1. get: If key is not exists in the hashmap, return -1. Otherwise return Node.value and switch the value to the frequent used position
+ * 1. get: If key is not exists in the hashmap, return null. Otherwise return the Node and switch it to the frequent used position
  * 2. put: If key is existing in the hashmap, change the old value to the new one and switch the value to the frequent used position
  * --Otherwise:
  * <1>. If the hashmap is full, evict the LRU data and put the current data into the beginning of the bidirectionalLinkedList
  * <2>. Otherwise just put the current data into the beginning of the bidirectionalLinkedList
+ * 3. Expiration (optional): expire-after-write or expire-after-access, or a time to live per entry via put with a duration.
+ * The expiration times are tracked in a TimerWheel that is advanced under the write lock by every operation,
+ * so the expired entries are purged in O(1) without a sweeper thread scanning the map
+ * 4. Statistics (optional): recordStats() counts hits, misses, puts and evictions by cause, with sampled get and put latencies
+ * 5. Eviction policy (optional): the order of the list is delegated to an EvictionPolicy, LRU by default.
+ * With CLOCK or SIEVE a hit only sets the visited bit of the node, so get only needs the read lock
+ * 6. Snapshot (optional): writeSnapshot writes the entries in eviction order to a memory-mapped file, holding the read lock only
+ * while the nodes are copied, and a cache built with loadSnapshot replays that file on start, so it does not start cold
  */
 @Slf4j
 public class ConcurrentLRUCache {
 
+    // deadline, access time to live, key and value
+    private static final int SNAPSHOT_ENTRY_LENGTH = SnapshotFile.EXPIRATION_LENGTH + 2 * Integer.BYTES;
+
     private final ConcurrentHashMap<Integer, Node> cache;
     private final ReentrantReadWriteLock lock;
-    private final BidirectionalLinkedList list;
+    private final EvictionPolicy<Node> policy;
+    private final EvictionPolicyType policyType;
+    private final TimerWheel<Node> timerWheel;
+    private final Consumer<Node> expiryHandler;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final StatsCounter statsCounter;
     private final int capacity;
 
     public ConcurrentLRUCache(int capacity) {
+        this(new Builder().capacity(capacity));
+    }
+
+    private ConcurrentLRUCache(Builder builder) {
+        if (builder.capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + builder.capacity);
+        }
+        if (builder.expireAfterWriteNanos > 0 && builder.expireAfterAccessNanos > 0) {
+            throw new IllegalStateException("expireAfterWrite and expireAfterAccess can not be used together");
+        }
         cache = new ConcurrentHashMap<>();
-        list = new BidirectionalLinkedList();
+        policyType = builder.policyType;
+        policy = policyType.create();
         lock = new ReentrantReadWriteLock();
-        this.capacity = capacity;
+        timerWheel = new TimerWheel<>(System.nanoTime());
+        statsCounter = builder.statsCounter;
+        expiryHandler = node -> {
+            removeExpired(node);
+            statsCounter.recordEviction(RemovalCause.EXPIRED);
+        };
+        expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.capacity = builder.capacity;
+        if (builder.snapshotPath != null && Files.exists(builder.snapshotPath)) {
+            try {
+                long start = System.nanoTime();
+                int restored = restoreSnapshot(builder.snapshotPath);
+                log.info("Restored {} entries from {} in {} ms", restored, builder.snapshotPath,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException | RuntimeException e) {
+                // A broken snapshot must not stop the application, the cache just starts cold
+                log.warn("Error in loading snapshot: {}, reason: {}", builder.snapshotPath, e.getMessage());
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     public Node get(int key) {
-        lock.readLock().lock();
+        long start = statsCounter.sampleStart();
+        Node curr = doGet(key);
+        if (curr != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        if (start != 0) {
+            statsCounter.recordGetLatency(System.nanoTime() - start);
+        }
+        return curr;
+    }
+
+    private Node doGet(int key) {
+        if (!policy.reordersOnAccess()) {
+            return doGetShared(key);
+        }
+        // Moving the node to the frequent used position is a write to the shared list,
+        // so it must be done under the write lock, a read lock lets two readers relink the same nodes at once.
+        // See SegmentedConcurrentLRUCache for spreading this lock over independent segments.
+        lock.writeLock().lock();
         try {
+            expireEntries();
             Node curr = cache.get(key);
+            if (curr != null && curr.expiresAt != ExpirableNode.NEVER) {
+                long now = System.nanoTime();
+                if (curr.isExpired(now)) {
+                    removeExpired(curr);
+                    statsCounter.recordEviction(RemovalCause.EXPIRED);
+                    return null;
+                }
+                if (curr.accessTtlNanos > 0) {
+                    curr.expiresAt = now + curr.accessTtlNanos;
+                    timerWheel.reschedule(curr);
+                }
+            }
             if (curr != null) {
+                // The write lock is already held, so the node is moved to the frequent used position in place,
+                // going through put would replace the node and restart its expire-after-write time on a read
+                policy.onAccess(curr);
+            }
+            return curr;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                // Invoke put method in multi-thread environment will cause deadlock as the put method will acquire write lock as well
-                // Because a write lock is exclusive and does not allow concurrent read or write access.
-                // Since you already have a read lock acquired, the writeLock().lock() call will block until all read locks are released.
-//                put(key, curr.value);
-                Node node = list.removeNode(curr);
-                // If successfully removed the node
-                if (node.prev == null && node.next == null) {
-                    // put the value at the beginning of the bidirectional linked list
-                    list.addFirst(curr);
+    /**
+     * The get of CLOCK and SIEVE, nothing is relinked so the readers share the read lock.
+     * An expired entry is only reported as missing here, the timer wheel purges it on the next write,
+     * and a new access deadline is just stored in the node, the wheel moves it to the right bucket when its old one is due
+     */
+    private Node doGetShared(int key) {
+        lock.readLock().lock();
+        try {
+            Node curr = cache.get(key);
+            if (curr == null) {
+                return null;
+            }
+            if (curr.expiresAt != ExpirableNode.NEVER) {
+                long now = System.nanoTime();
+                if (curr.isExpired(now)) {
+                    return null;
+                }
+                if (curr.accessTtlNanos > 0) {
+                    curr.expiresAt = now + curr.accessTtlNanos;
                 }
             }
+            policy.onAccess(curr);
             return curr;
         } finally {
             lock.readLock().unlock();
@@ -67,22 +182,62 @@ public class ConcurrentLRUCache {
     }
 
     public void put(int key, int value) {
+        long start = statsCounter.sampleStart();
+        doPut(key, value, expireAfterWriteNanos, expireAfterAccessNanos);
+        if (start != 0) {
+            statsCounter.recordPutLatency(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Put the entry with its own time to live, which follows the expiration mode of the cache (after write by default)
+     */
+    public void put(int key, int value, long duration, TimeUnit unit) {
+        long ttlNanos = unit.toNanos(duration);
+        if (ttlNanos <= 0) {
+            throw new IllegalArgumentException("duration must be positive: " + duration);
+        }
+        long start = statsCounter.sampleStart();
+        if (expireAfterAccessNanos > 0) {
+            doPut(key, value, 0, ttlNanos);
+        } else {
+            doPut(key, value, ttlNanos, 0);
+        }
+        if (start != 0) {
+            statsCounter.recordPutLatency(System.nanoTime() - start);
+        }
+    }
+
+    private void doPut(int key, int value, long writeTtlNanos, long accessTtlNanos) {
         lock.writeLock().lock();
         Node newNode = new Node(key, value);
         try {
+            expireEntries();
             if (cache.containsKey(key)) {
-                list.removeNode(cache.get(key));
+                Node oldNode = cache.get(key);
+                policy.onRemove(oldNode);
+                timerWheel.deschedule(oldNode);
             } else {
                 // If cache is full
                 if (cache.size() == capacity) {
-                    // Evict the LRU node
-                    Node lruNode = list.removeLast();
-                    cache.remove(lruNode.key);
+                    // Evict the node chosen by the policy, the LRU node by default
+                    Node victim = policy.victim();
+                    policy.onRemove(victim);
+                    cache.remove(victim.key);
+                    timerWheel.deschedule(victim);
+                    statsCounter.recordEviction(RemovalCause.SIZE);
                 }
             }
+            long ttlNanos = writeTtlNanos > 0 ? writeTtlNanos : accessTtlNanos;
+            if (ttlNanos > 0) {
+                newNode.accessTtlNanos = accessTtlNanos;
+                newNode.expiresAt = System.nanoTime() + ttlNanos;
+                timerWheel.schedule(newNode);
+            }
             // put the data into the beginning
             cache.put(key, newNode);
-            list.addFirst(newNode);
+            policy.onInsert(newNode);
+            statsCounter.recordPut();
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
@@ -93,9 +248,12 @@ public class ConcurrentLRUCache {
     public boolean evict(int key) {
         lock.writeLock().lock();
         try {
+            expireEntries();
             if (cache.containsKey(key)) {
                 Node remove = cache.remove(key);
-                list.removeNode(remove);
+                policy.onRemove(remove);
+                timerWheel.deschedule(remove);
+                statsCounter.recordEviction(RemovalCause.EXPLICIT);
                 return true;
             }
         } catch (Exception e) {
@@ -106,62 +264,181 @@ public class ConcurrentLRUCache {
         return false;
     }
 
+    /**
+     * Must be called with the write lock held
+     */
+    private void expireEntries() {
+        if (!timerWheel.isEmpty()) {
+            timerWheel.advance(System.nanoTime(), expiryHandler);
+        }
+    }
+
+    /**
+     * Write the entries to the snapshot file in eviction order, the expired entries are left out.
+     * Only the copy of the node references holds the read lock, the file is written after it is released
+     *
+     * @return the number of entries written
+     */
+    public int writeSnapshot(Path path) throws IOException {
+        List<Node> nodes;
+        lock.readLock().lock();
+        try {
+            nodes = new ArrayList<>(cache.size());
+            policy.forEach(nodes::add);
+        } finally {
+            lock.readLock().unlock();
+        }
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        nodes.removeIf(node -> node.isExpired(nowNanos));
+        SnapshotFile.write(path, SnapshotFile.KIND_INT, nodes.size(), (long) nodes.size() * SNAPSHOT_ENTRY_LENGTH, buffer -> {
+            int offset = SnapshotFile.HEADER_LENGTH;
+            for (Node node : nodes) {
+                SnapshotFile.putExpiration(buffer, offset, node.expiresAt, node.accessTtlNanos, nowNanos, nowMillis);
+                buffer.putInt(offset + SnapshotFile.EXPIRATION_LENGTH, node.key, SnapshotFile.ORDER);
+                buffer.putInt(offset + SnapshotFile.EXPIRATION_LENGTH + Integer.BYTES, node.value, SnapshotFile.ORDER);
+                offset += SNAPSHOT_ENTRY_LENGTH;
+            }
+        });
+        return nodes.size();
+    }
+
+    /**
+     * writeSnapshot on the common pool
+     */
+    public CompletableFuture<Integer> writeSnapshotAsync(Path path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return writeSnapshot(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private int restoreSnapshot(Path path) throws IOException {
+        return SnapshotFile.read(path, SnapshotFile.KIND_INT, SNAPSHOT_ENTRY_LENGTH, buffer -> {
+            int count = SnapshotFile.count(buffer);
+            long nowMillis = System.currentTimeMillis();
+            int restored = 0;
+            // The oldest entries would be evicted by the newer ones right away, so skip them
+            for (int i = Math.max(0, count - capacity); i < count; i++) {
+                int offset = SnapshotFile.HEADER_LENGTH + i * SNAPSHOT_ENTRY_LENGTH;
+                long remainingNanos = SnapshotFile.remainingNanos(buffer, offset, nowMillis);
+                if (remainingNanos < 0) {
+                    continue;
+                }
+                long accessTtlNanos = SnapshotFile.accessTtlNanos(buffer, offset);
+                int key = buffer.getInt(offset + SnapshotFile.EXPIRATION_LENGTH, SnapshotFile.ORDER);
+                int value = buffer.getInt(offset + SnapshotFile.EXPIRATION_LENGTH + Integer.BYTES, SnapshotFile.ORDER);
+                if (remainingNanos > 0 || accessTtlNanos > 0) {
+                    doPut(key, value, remainingNanos, accessTtlNanos);
+                } else {
+                    // No expiration was recorded, so the entry follows the expiration of this cache
+                    doPut(key, value, expireAfterWriteNanos, expireAfterAccessNanos);
+                }
+                restored++;
+            }
+            return restored;
+        });
+    }
+
+    /**
+     * An immutable snapshot of the statistics, all zero unless the cache was built with recordStats()
+     */
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    private void removeExpired(Node node) {
+        cache.remove(node.key, node);
+        policy.onRemove(node);
+        timerWheel.deschedule(node);
+    }
+
     @Override
     public String toString() {
         return "ConcurrentLRUCache{" +
                 "cache=" + cache +
-                ", list=" + list +
+                ", policy=" + policyType +
                 ", capacity=" + capacity +
                 '}';
     }
 
-    private static class BidirectionalLinkedList {
-        private final Node head;
-        private final Node tail;
+    public static final class Builder {
+        private int capacity;
+        private long expireAfterWriteNanos;
+        private long expireAfterAccessNanos;
+        private StatsCounter statsCounter = StatsCounter.disabled();
+        private EvictionPolicyType policyType = EvictionPolicyType.LRU;
+        private Path snapshotPath;
 
-        public BidirectionalLinkedList() {
-            head = new Node(0, 0);
-            tail = new Node(0, 0);
+        private Builder() {
+        }
 
-            // Build the bidirectional linked list
-            head.next = tail;
-            tail.prev = head;
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
         }
 
-        public void addFirst(Node node) {
-            node.next = head.next;
-            node.prev = head;
-            head.next.prev = node;
-            head.next = node;
+        /**
+         * Every entry expires once the duration has passed since it was put
+         */
+        public Builder expireAfterWrite(long duration, TimeUnit unit) {
+            this.expireAfterWriteNanos = positiveNanos(duration, unit);
+            return this;
         }
 
-        public Node removeNode(Node node) {
-            node.prev.next = node.next;
-            node.next.prev = node.prev;
-            return node;
+        /**
+         * Every entry expires once the duration has passed since it was last read or put
+         */
+        public Builder expireAfterAccess(long duration, TimeUnit unit) {
+            this.expireAfterAccessNanos = positiveNanos(duration, unit);
+            return this;
         }
 
-        public Node removeLast() {
-            if (head.next == tail) {
-                return head;
-            }
-            return removeNode(tail.prev);
+        /**
+         * Record the statistics with a ConcurrentStatsCounter
+         */
+        public Builder recordStats() {
+            return recordStats(new ConcurrentStatsCounter());
         }
 
-        @Override
-        public String toString() {
-            return "BidirectionalLinkedList{" +
-                    "head=" + head +
-                    ", tail=" + tail +
-                    '}';
+        public Builder recordStats(StatsCounter statsCounter) {
+            this.statsCounter = Objects.requireNonNull(statsCounter);
+            return this;
+        }
+
+        public Builder evictionPolicy(EvictionPolicyType policyType) {
+            this.policyType = Objects.requireNonNull(policyType);
+            return this;
+        }
+
+        /**
+         * Restore the entries of the snapshot file when the cache is built, a missing or broken file leaves the cache empty
+         */
+        public Builder loadSnapshot(Path snapshotPath) {
+            this.snapshotPath = Objects.requireNonNull(snapshotPath);
+            return this;
+        }
+
+        public ConcurrentLRUCache build() {
+            return new ConcurrentLRUCache(this);
+        }
+
+        private static long positiveNanos(long duration, TimeUnit unit) {
+            long nanos = unit.toNanos(duration);
+            if (nanos <= 0) {
+                throw new IllegalArgumentException("duration must be positive: " + duration + " " + unit);
+            }
+            return nanos;
         }
     }
 
-    private static class Node {
+    private static class Node extends PolicyNode {
         private final int key;
         private final int value;
-        private Node prev;
-        private Node next;
+        private long accessTtlNanos;
 
         public Node(int key, int value) {
             this.key = key;
@@ -177,7 +454,7 @@ public class ConcurrentLRUCache {
         }
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
         int capacity = 3;
         ConcurrentLRUCache cache = new ConcurrentLRUCache(capacity);
 
@@ -233,5 +510,48 @@ public class ConcurrentLRUCache {
         log.info("cache.get(2).value: {}", cache.get(2).value);
         // False, Key 4 should be in the cache
         log.info("cache.get(4) == null? {}", cache.get(4) == null);
+
+        // Expire-after-access: key 1 keeps being read and survives, key 2 is left alone and expires
+        ConcurrentLRUCache expiringCache = ConcurrentLRUCache.builder()
+                .capacity(capacity)
+                .expireAfterAccess(300, TimeUnit.MILLISECONDS)
+                .build();
+        expiringCache.put(1, 10);
+        expiringCache.put(2, 20);
+        for (int i = 0; i < 4; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            expiringCache.get(1);
+        }
+        // False, True
+        log.info("cache.get(1) == null? {}, cache.get(2) == null? {}", expiringCache.get(1) == null, expiringCache.get(2) == null);
+
+        ConcurrentLRUCache statsCache = ConcurrentLRUCache.builder()
+                .capacity(1_000)
+                .recordStats()
+                .build();
+        for (int i = 0; i < 1_000_000; i++) {
+            int key = ThreadLocalRandom.current().nextInt(2_000);
+            if (statsCache.get(key) == null) {
+                statsCache.put(key, key);
+            }
+        }
+        log.info("stats: {}", statsCache.stats());
+
+        // Warm restart: write the snapshot in the background, then build a new cache from it
+        Path snapshot = Files.createTempFile("ConcurrentLRUCache", ".snapshot");
+        log.info("snapshot entries: {}", statsCache.writeSnapshotAsync(snapshot).join());
+        ConcurrentLRUCache restartedCache = ConcurrentLRUCache.builder()
+                .capacity(1_000)
+                .loadSnapshot(snapshot)
+                .build();
+        int restoredHits = 0;
+        for (int key = 0; key < 2_000; key++) {
+            if (restartedCache.get(key) != null) {
+                restoredHits++;
+            }
+        }
+        // 1000: the hot set is back without touching the backend
+        log.info("hits after restart: {}", restoredHits);
+        Files.delete(snapshot);
     }
 }
@@ -0,0 +1,113 @@
+package concurrentLRUCache;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 16:30
+ * A contention-free StatsCounter
+ *
+ * <p>
+ * 1. The counters are LongAdders, so the threads increment their own cells instead of fighting over one cache line
+ * 2. The get and put latencies are sampled (one out of sampleRate operations by default), timing every call would cost more
+ * than a cache hit itself, and the sampled operations go into a CacheLatencyHistogram
+ */
+public final class ConcurrentStatsCounter implements StatsCounter {
+
+    private static final int DEFAULT_SAMPLE_RATE = 64;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder putCount = new LongAdder();
+    private final LongAdder[] evictionCounts;
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final CacheLatencyHistogram getLatency = new CacheLatencyHistogram();
+    private final CacheLatencyHistogram putLatency = new CacheLatencyHistogram();
+    private final int sampleRate;
+
+    public ConcurrentStatsCounter() {
+        this(DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @param sampleRate time one out of sampleRate operations, 1 times them all
+     */
+    public ConcurrentStatsCounter(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        evictionCounts = new LongAdder[RemovalCause.values().length];
+        for (int i = 0; i < evictionCounts.length; i++) {
+            evictionCounts[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void recordHit() {
+        hitCount.increment();
+    }
+
+    @Override
+    public void recordMiss() {
+        missCount.increment();
+    }
+
+    @Override
+    public void recordPut() {
+        putCount.increment();
+    }
+
+    @Override
+    public void recordEviction(RemovalCause cause) {
+        evictionCounts[cause.ordinal()].increment();
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadNanos) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadNanos);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadNanos) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadNanos);
+    }
+
+    @Override
+    public long sampleStart() {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        // 0 means not sampled
+        return now == 0 ? 1 : now;
+    }
+
+    @Override
+    public void recordGetLatency(long nanos) {
+        getLatency.record(nanos);
+    }
+
+    @Override
+    public void recordPutLatency(long nanos) {
+        putLatency.record(nanos);
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        Map<RemovalCause, Long> evictions = new EnumMap<>(RemovalCause.class);
+        for (RemovalCause cause : RemovalCause.values()) {
+            evictions.put(cause, evictionCounts[cause.ordinal()].sum());
+        }
+        return new CacheStats(hitCount.sum(), missCount.sum(), putCount.sum(), evictions,
+                loadSuccessCount.sum(), loadFailureCount.sum(), totalLoadTime.sum(),
+                getLatency.snapshot(), putLatency.snapshot());
+    }
+}
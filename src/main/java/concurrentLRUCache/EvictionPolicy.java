@@ -0,0 +1,39 @@
+package concurrentLRUCache;
+
+import java.util.function.Consumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * Decides the order in which the cache nodes are evicted, the cache core delegates to it
+ *
+ * <p>
+ * 1. All the methods are called with the lock of the cache held, except onAccess of a policy whose reordersOnAccess() is false,
+ * which only marks the node as visited and may be called by the readers concurrently
+ * 2. victim() only selects the node, the cache decides whether to remove it and calls onRemove
+ */
+interface EvictionPolicy<N extends PolicyNode> {
+
+    void onInsert(N node);
+
+    void onAccess(N node);
+
+    void onRemove(N node);
+
+    /**
+     * @return the node that should be evicted next, or null if the policy is empty
+     */
+    N victim();
+
+    boolean contains(N node);
+
+    /**
+     * Visit the nodes in eviction order, the node that would be evicted first comes first
+     */
+    void forEach(Consumer<? super N> action);
+
+    /**
+     * @return true if a hit changes the order of the nodes, so it must be applied under the lock of the cache
+     */
+    boolean reordersOnAccess();
+}
@@ -0,0 +1,103 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:40
+ * Compare the eviction policies LRU, CLOCK and SIEVE
+ *
+ * <p>
+ * 1. Hit rate: the Zipfian and scan-heavy traces of {@link AdmissionHitRateComparison} on {@link GenericConcurrentLRUCache}
+ * 2. Read throughput: all the threads read a fully populated cache, with LRU every hit is a write to the shared order
+ * (the write lock of {@link ConcurrentLRUCache}, the read buffers of {@link GenericConcurrentLRUCache}),
+ * with CLOCK and SIEVE a hit only sets the visited bit
+ */
+@Slf4j
+public class EvictionPolicyComparison {
+
+    private static final int CAPACITY = 10_000;
+    private static final int READS_PER_THREAD = 2_000_000;
+    private static final int WARM_UP_ROUNDS = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] zipfian = AdmissionHitRateComparison.zipfianTrace(new Random(42));
+        int[] scanHeavy = AdmissionHitRateComparison.scanHeavyTrace(new Random(42));
+        for (int capacity : new int[]{500, 2_000, 10_000}) {
+            for (EvictionPolicyType type : EvictionPolicyType.values()) {
+                log.info("capacity: {}, {} -> zipfian: {}%, scan-heavy: {}%", capacity, type,
+                        hitRate(zipfian, capacity, type), hitRate(scanHeavy, capacity, type));
+            }
+        }
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (EvictionPolicyType type : EvictionPolicyType.values()) {
+            ConcurrentLRUCache intCache = ConcurrentLRUCache.builder().capacity(CAPACITY).evictionPolicy(type).build();
+            GenericConcurrentLRUCache<Integer, Integer> genericCache = GenericConcurrentLRUCache.<Integer, Integer>builder()
+                    .capacity(CAPACITY)
+                    .evictionPolicy(type)
+                    .build();
+            for (int i = 0; i < CAPACITY; i++) {
+                intCache.put(i, i);
+                genericCache.put(i, i);
+            }
+            for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+                readAll(threads, intCache::get);
+                readAll(threads, genericCache::get);
+            }
+            log.info("threads: {}, {} -> ConcurrentLRUCache: {} ns/get, GenericConcurrentLRUCache: {} ns/get", threads, type,
+                    String.format("%.1f", readAll(threads, intCache::get)),
+                    String.format("%.1f", readAll(threads, genericCache::get)));
+        }
+    }
+
+    private static String hitRate(int[] trace, int capacity, EvictionPolicyType type) {
+        GenericConcurrentLRUCache<Integer, Integer> cache = GenericConcurrentLRUCache.<Integer, Integer>builder()
+                .capacity(capacity)
+                .evictionPolicy(type)
+                .build();
+        long hits = 0;
+        for (int key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return String.format("%.2f", hits * 100.0 / trace.length);
+    }
+
+    private static double readAll(int threads, IntFunction<Object> reader) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < READS_PER_THREAD; i++) {
+                    reader.apply(random.nextInt(CAPACITY));
+                }
+                done.countDown();
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executorService.shutdown();
+        return (double) elapsed / ((long) threads * READS_PER_THREAD);
+    }
+}
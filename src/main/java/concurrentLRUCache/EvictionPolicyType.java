@@ -0,0 +1,39 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * The eviction policies a cache can be built with
+ */
+public enum EvictionPolicyType {
+    /**
+     * Strict LRU, every hit moves the node to the frequent used position
+     */
+    LRU {
+        @Override
+        <N extends PolicyNode> EvictionPolicy<N> create() {
+            return new LruPolicy<>();
+        }
+    },
+    /**
+     * Second chance, a hit only sets the visited bit and the hand skips the visited nodes once while going round
+     */
+    CLOCK {
+        @Override
+        <N extends PolicyNode> EvictionPolicy<N> create() {
+            return new ClockPolicy<>();
+        }
+    },
+    /**
+     * Like CLOCK, but new nodes are always inserted at the head instead of behind the hand,
+     * so the one-hit nodes are swept out quickly while the visited ones stay where they are
+     */
+    SIEVE {
+        @Override
+        <N extends PolicyNode> EvictionPolicy<N> create() {
+            return new SievePolicy<>();
+        }
+    };
+
+    abstract <N extends PolicyNode> EvictionPolicy<N> create();
+}
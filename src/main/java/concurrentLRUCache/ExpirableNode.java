@@ -0,0 +1,27 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 14:40
+ * The base class of the cache nodes that can be scheduled on a {@link TimerWheel}
+ *
+ * <p>
+ * The timer links are intrusive, so scheduling an entry allocates nothing and unlinking it is O(1)
+ */
+abstract class ExpirableNode {
+
+    static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * The System.nanoTime() at which the entry expires, written by the reader on expire-after-access
+     */
+    volatile long expiresAt = NEVER;
+
+    // Guarded by the lock of the owning cache
+    ExpirableNode prevInTimer;
+    ExpirableNode nextInTimer;
+
+    boolean isExpired(long now) {
+        return expiresAt - now <= 0;
+    }
+}
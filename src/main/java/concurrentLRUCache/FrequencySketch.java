@@ -0,0 +1,82 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 13:20
+ * A compact count-min sketch that estimates how often a key has been used, for the TinyLFU admission policy
+ *
+ * <p>
+ * 1. The counters are 4 bits wide and 16 of them are packed in one long, so a counter saturates at 15
+ * 2. Each key is counted in 4 counters chosen by 4 differently seeded hashes, the estimate is the minimum of them
+ * 3. Once the number of increments reaches the sample size (10 x capacity) every counter is halved,
+ * so the sketch keeps following the recent popularity instead of the whole history
+ * <p>
+ * Not thread-safe, the cache only touches it while holding the eviction lock
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0x97CB3127C2B6E2F5L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(long capacity) {
+        int maximum = (int) Math.min(Math.max(capacity, 1), 1 << 30);
+        // One long per expected entry, 16 counters each
+        int length = 1 << -Integer.numberOfLeadingZeros(Math.max(maximum, 8) - 1);
+        table = new long[length];
+        counterMask = (length << 4) - 1;
+        sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int word = index >>> 4;
+            int shift = (index & 15) << 2;
+            if (((table[word] >>> shift) & 0xFL) < MAX_COUNT) {
+                table[word] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -2,8 +2,17 @@ package concurrentLRUCache;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author lzn
@@ -11,85 +20,1268 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *
  * The implementation of multi-thread version for common LRU cache
  * Optimization:
- * Introducing a ReentrantReadWriteLock to separate read and write operations, which is useful in the current situation where there are more reads than writes.
+ * 1. A read is a plain ConcurrentHashMap lookup plus an append to a striped, lossy ring buffer (see StripedReadBuffer), no lock at all
+ * 2. The access order is an intrusive doubly linked list of the map nodes, so moving a node to the frequent used position is O(1)
+ * instead of the O(n) ConcurrentLinkedDeque.remove(key)
+ * 3. The recorded reads are replayed on the access order in batches by whichever thread holds the eviction lock,
+ * writers drain the buffers before changing the order and a reader drains them only when its stripe is full (tryLock, never blocks)
+ * <p>
+ * Eviction policy: the order of the entries is delegated to an EvictionPolicy chosen by the builder, LRU by default.
+ * With CLOCK or SIEVE a hit only sets the visited bit of the node, so without admission and expire-after-access
+ * a read skips the read buffer as well and writes nothing but that bit
+ * <p>
+ * Admission (optional, W-TinyLFU):
+ * 1. New keys enter a small LRU admission window (1% of the maximum weight) in front of the main region, which uses the eviction policy
+ * 2. Every read and write is counted in a FrequencySketch, which is halved periodically to forget old popularity
+ * 3. When the window overflows, its LRU candidate only displaces the victim of the main region if the sketch says
+ * the candidate is used more often, otherwise the candidate itself is evicted, so a scan of cold keys cannot flush the hot set
+ * <p>
+ * Expiration (optional):
+ * 1. expire-after-write or expire-after-access for every entry, and put with a duration gives an entry its own time to live
+ * 2. The expiration times are tracked in a hierarchical TimerWheel that is advanced by the maintenance under the eviction lock,
+ * so an expired entry is purged in O(1) without a sweeper thread scanning the whole map
+ * 3. A read checks the expiration time itself, so an expired entry is never returned even if it has not been purged yet
+ * <p>
+ * Loading (single-flight):
+ * 1. getOrLoad and getAllOrLoad register a CompletableFuture per missing key in an in-flight map before running the loader,
+ * so the threads missing on the same key at the same time share one load instead of calling the backend once each
+ * 2. The loader runs on the executor without holding the eviction lock, its result is put like any other write unless
+ * a newer value has been put for the key in the meantime
+ * 3. refreshAfterWrite (refresh-ahead): a read of an entry older than the refresh interval still returns the current value at once
+ * and starts one asynchronous reload on the executor, a CAS flag on the node keeps the concurrent readers from starting another.
+ * Only the entries that are read are refreshed, and the reloaded value is dropped if the entry was written or removed meanwhile
+ * <p>
+ * Capacity:
+ * 1. The cache is bounded by a maximum total weight, the capacity mode is just a weigher that gives every entry a weight of 1
+ * 2. With maximumWeight and a Weigher the size of the values is bounded instead, one large value evicts as many entries as needed,
+ * and a value heavier than the maximum itself is not kept at all
+ * 3. The running total weight is updated on every insert, update and removal, so it is never calculated by walking the entries
+ * <p>
+ * Bulk operations: getAll, putAll and evictAll take the eviction lock once per batch and apply all the recency updates together,
+ * getAll only falls back to the read buffers when another thread holds the lock, so it still never blocks
+ * <p>
+ * Snapshot (optional): with the key and value serializers set, writeSnapshot writes the entries in eviction order
+ * to a memory-mapped file, the eviction lock is only held while the node references are copied and the readers never wait.
+ * A cache built with loadSnapshot replays the newest entries that fit into it on start, so a restart does not begin cold
+ * <p>
+ * Off-heap values (optional): with offHeap(serializer) the values are serialized into blocks of a SlabAllocator over direct memory,
+ * the nodes only keep the block address and its stamp, so the large values are no longer scanned or copied by the GC.
+ * get deserializes a copy, getView wraps the block in a reusable OffHeapValueView without copying, and a freed block is reused
+ * by the next value of its size class. A reader checks the stamp of the block before and after reading it, like a seqlock,
+ * so a value replaced or evicted in the middle of the read is never returned torn
+ * <p>
+ * Statistics (optional): recordStats() counts hits, misses, puts, evictions by cause and load times in a ConcurrentStatsCounter,
+ * with sampled get and put latency histograms, stats() returns an immutable snapshot. The default counter is a no-op
  */
 @Slf4j
 public class GenericConcurrentLRUCache<K, V> {
 
-    private final ConcurrentHashMap<K, V> cache;
-    private final ConcurrentLinkedDeque<K> queue;
-    private final ReentrantReadWriteLock lock;
-    private final int capacity;
+    // deadline, access time to live, key length and value length
+    private static final int SNAPSHOT_ENTRY_HEADER_LENGTH = SnapshotFile.EXPIRATION_LENGTH + 2 * Integer.BYTES;
+
+    private final ConcurrentHashMap<K, Node<K, V>> cache;
+    private final LruPolicy<Node<K, V>> window;
+    private final EvictionPolicy<Node<K, V>> main;
+    private final EvictionPolicyType policyType;
+    // True when a hit only has to set the visited bit, no reordering, no sketch
+    private final boolean visitOnlyReads;
+    private final StripedReadBuffer<Node<K, V>> readBuffer;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight;
+    private final Executor executor;
+    private final Consumer<Node<K, V>> accessRecorder;
+    private final ReentrantLock evictionLock;
+    private final FrequencySketch sketch;
+    private final TimerWheel<Node<K, V>> timerWheel;
+    private final Consumer<Node<K, V>> expiryHandler;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final Weigher<? super K, ? super V> weigher;
+    private final long maximum;
+    private final long windowMaximum;
+    private final StatsCounter statsCounter;
+    private final CacheSerializer<K> keySerializer;
+    private final CacheSerializer<V> valueSerializer;
+    // Null unless the values are stored off-heap, the slabs are guarded by the eviction lock
+    private final SlabAllocator slabs;
+    private final CacheSerializer<V> offHeapSerializer;
+    private final ThreadLocal<OffHeapValueView> readViews;
+    // Null unless refreshAfterWrite is set
+    private final Function<? super K, ? extends V> refreshLoader;
+    private final long refreshAfterWriteNanos;
+    // Guarded by the eviction lock
+    private long weightedSize;
+    private long windowWeightedSize;
 
     public GenericConcurrentLRUCache(int capacity) {
+        this(new Builder<K, V>().capacity(capacity));
+    }
+
+    private GenericConcurrentLRUCache(Builder<K, V> builder) {
+        if (builder.maximum <= 0) {
+            throw new IllegalArgumentException("capacity or maximumWeight must be positive: " + builder.maximum);
+        }
+        if (builder.expireAfterWriteNanos > 0 && builder.expireAfterAccessNanos > 0) {
+            throw new IllegalStateException("expireAfterWrite and expireAfterAccess can not be used together");
+        }
         cache = new ConcurrentHashMap<>();
-        queue = new ConcurrentLinkedDeque<>();
-        lock = new ReentrantReadWriteLock();
-        this.capacity = capacity;
+        window = new LruPolicy<>();
+        policyType = builder.policyType;
+        main = policyType.create();
+        readBuffer = new StripedReadBuffer<>();
+        inFlight = new ConcurrentHashMap<>();
+        executor = builder.executor;
+        accessRecorder = this::onAccess;
+        evictionLock = new ReentrantLock();
+        timerWheel = new TimerWheel<>(System.nanoTime());
+        expiryHandler = node -> removeNode(node, RemovalCause.EXPIRED);
+        statsCounter = builder.statsCounter;
+        expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        weigher = builder.weigher;
+        maximum = builder.maximum;
+        if (builder.admission) {
+            // The sketch is sized by the expected number of entries, which is unknown for a custom weigher
+            sketch = new FrequencySketch(builder.weigherSet ? Math.min(maximum, 1 << 20) : maximum);
+            windowMaximum = Math.max(1, maximum / 100);
+        } else {
+            sketch = null;
+            windowMaximum = 0;
+        }
+        visitOnlyReads = sketch == null && !main.reordersOnAccess();
+        keySerializer = builder.keySerializer;
+        valueSerializer = builder.valueSerializer;
+        refreshLoader = builder.refreshLoader;
+        refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+        offHeapSerializer = builder.offHeapSerializer;
+        if (offHeapSerializer != null) {
+            slabs = new SlabAllocator(builder.slabSize);
+            readViews = ThreadLocal.withInitial(OffHeapValueView::new);
+        } else {
+            slabs = null;
+            readViews = null;
+        }
+        if (builder.snapshotPath != null && Files.exists(builder.snapshotPath)) {
+            try {
+                long start = System.nanoTime();
+                int restored = restoreSnapshot(builder.snapshotPath);
+                log.info("Restored {} entries from {} in {} ms", restored, builder.snapshotPath,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException | RuntimeException e) {
+                // A broken snapshot must not stop the application, the cache just starts cold
+                log.warn("Error in loading snapshot: {}, reason: {}", builder.snapshotPath, e.getMessage());
+            }
+        }
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
     }
 
     public V get(K key) {
-        lock.readLock().lock();
+        long start = statsCounter.sampleStart();
+        V value = doGet(key);
+        if (value != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        if (start != 0) {
+            statsCounter.recordGetLatency(System.nanoTime() - start);
+        }
+        return value;
+    }
+
+    private V doGet(K key) {
+        Node<K, V> node = cache.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (!isReadable(node)) {
+            tryToCleanUp();
+            return null;
+        }
+        V value = valueOf(node);
+        if (value != null) {
+            afterRead(node);
+        }
+        return value;
+    }
+
+    /**
+     * Zero-copy read of an off-heap value: wrap the view around the value where it lives in direct memory.
+     * Check view.isValid() after reading from it, the block is reused once the entry is replaced or evicted
+     *
+     * @return false if the key is missing, then the view is left unchanged
+     */
+    public boolean getView(K key, OffHeapValueView view) {
+        if (slabs == null) {
+            throw new IllegalStateException("the cache was built without offHeap");
+        }
+        long start = statsCounter.sampleStart();
+        Node<K, V> node = cache.get(key);
+        boolean found = false;
+        if (node != null && isReadable(node)) {
+            found = wrapView(node, view);
+            if (found) {
+                afterRead(node);
+            }
+        } else if (node != null) {
+            tryToCleanUp();
+        }
+        if (found) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        if (start != 0) {
+            statsCounter.recordGetLatency(System.nanoTime() - start);
+        }
+        return found;
+    }
+
+    /**
+     * @return the on-heap value, or a deserialized copy of the off-heap one, or null if the node has been removed in the meantime
+     */
+    V valueOf(Node<K, V> node) {
+        if (slabs == null) {
+            return node.value;
+        }
+        OffHeapValueView view = readViews.get();
+        while (wrapView(node, view)) {
+            try {
+                V value = offHeapSerializer.read(view.buffer(), 0, view.length());
+                if (view.isValid()) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // Torn bytes can make any serializer fail, only a failure on intact bytes is real
+                if (view.isValid()) {
+                    throw e;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the node no longer has a value, after retrying while a writer replaces its block
+     */
+    private boolean wrapView(Node<K, V> node, OffHeapValueView view) {
+        while (true) {
+            long address = node.address;
+            long stamp = node.stamp;
+            if (address == 0) {
+                return false;
+            }
+            if (view.wrap(address, stamp)) {
+                return true;
+            }
+            if (node.address == address && node.stamp == stamp) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return false if the node has expired, otherwise push its expiration time forward on expire-after-access
+     */
+    private boolean isReadable(Node<K, V> node) {
+        if (node.expiresAt != ExpirableNode.NEVER) {
+            long now = System.nanoTime();
+            if (node.isExpired(now)) {
+                return false;
+            }
+            if (node.accessTtlNanos > 0) {
+                node.expiresAt = now + node.accessTtlNanos;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the values of the keys that are present, the hits are reordered together under one acquisition of the eviction lock
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>(Math.max(16, keys.size() * 4 / 3 + 1));
+        // Someone else is maintaining the cache, record the reads like single gets instead of waiting
+        boolean locked = evictionLock.tryLock();
         try {
-            V curr = cache.get(key);
-            if (curr != null) {
-                if (queue.remove(key)) {
-                    queue.offer(key);
+            if (locked) {
+                maintenance();
+            }
+            for (K key : keys) {
+                Node<K, V> node = cache.get(key);
+                V value = node != null && isReadable(node) ? valueOf(node) : null;
+                if (value != null) {
+                    result.put(key, value);
+                    // Reorder the node while it is still in the CPU cache from the lookup
+                    if (locked) {
+                        onAccess(node);
+                    } else if (!visitOnly(node)) {
+                        readBuffer.offer(node);
+                    }
+                    refreshIfNeeded(node);
+                    statsCounter.recordHit();
+                } else {
+                    statsCounter.recordMiss();
                 }
             }
+        } finally {
+            if (locked) {
+                evictionLock.unlock();
+            }
+        }
+        return result;
+    }
 
-            return curr;
+    /**
+     * Put all the entries under one acquisition of the eviction lock, the eviction runs once after the whole batch
+     */
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        evictionLock.lock();
+        try {
+            maintenance();
+            for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                putLocked(entry.getKey(), entry.getValue(), expireAfterWriteNanos, expireAfterAccessNanos, false);
+            }
+            evictEntries();
         } finally {
-            lock.readLock().unlock();
+            evictionLock.unlock();
         }
     }
 
+    /**
+     * Remove all the keys under one acquisition of the eviction lock
+     *
+     * @return the number of entries removed
+     */
+    public int evictAll(Collection<? extends K> keys) {
+        int removed = 0;
+        evictionLock.lock();
+        try {
+            maintenance();
+            for (K key : keys) {
+                Node<K, V> node = cache.get(key);
+                if (node != null) {
+                    removeNode(node, RemovalCause.EXPLICIT);
+                    removed++;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        return removed;
+    }
+
     public void put(K key, V value) {
-        lock.writeLock().lock();
+        long start = statsCounter.sampleStart();
+        doPut(key, value, expireAfterWriteNanos, expireAfterAccessNanos);
+        if (start != 0) {
+            statsCounter.recordPutLatency(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Put the entry with its own time to live, which follows the expiration mode of the cache (after write by default)
+     */
+    public void put(K key, V value, long duration, TimeUnit unit) {
+        long ttlNanos = unit.toNanos(duration);
+        if (ttlNanos <= 0) {
+            throw new IllegalArgumentException("duration must be positive: " + duration);
+        }
+        long start = statsCounter.sampleStart();
+        if (expireAfterAccessNanos > 0) {
+            doPut(key, value, 0, ttlNanos);
+        } else {
+            doPut(key, value, ttlNanos, 0);
+        }
+        if (start != 0) {
+            statsCounter.recordPutLatency(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the value, or load it on the executor if it is missing. Concurrent misses on the same key share one load,
+     * and the future completes with null if the loader returns null, which is not cached
+     */
+    public CompletableFuture<V> getOrLoad(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> loading = inFlight.putIfAbsent(key, future);
+        if (loading != null) {
+            return loading;
+        }
+        // A load that finished between the miss and the registration has already put its value
+        value = getIfPresentQuietly(key);
+        if (value != null) {
+            inFlight.remove(key, future);
+            future.complete(value);
+            return future;
+        }
         try {
-            if (cache.containsKey(key)) {
-                queue.remove(key);
-            } else {
-                // If cache is full
-                if (queue.size() == capacity) {
-                    // Evict the LRU node
-                    K lruNode = queue.removeLast();
-                    cache.remove(lruNode);
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    V loaded = loader.apply(key);
+                    recordLoad(loaded != null, start);
+                    completeLoad(key, loaded, future);
+                } catch (Throwable t) {
+                    recordLoad(false, start);
+                    inFlight.remove(key, future);
+                    future.completeExceptionally(t);
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Get the values of all the keys, the missing keys that are not being loaded by another caller are loaded
+     * together by one call of the bulk loader. The keys the bulk loader does not return are absent from the result
+     */
+    public CompletableFuture<Map<K, V>> getAllOrLoad(Collection<? extends K> keys, Function<Set<K>, Map<K, V>> bulkLoader) {
+        Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> owned = new LinkedHashMap<>();
+        for (K key : keys) {
+            if (futures.containsKey(key)) {
+                continue;
+            }
+            V value = get(key);
+            if (value != null) {
+                futures.put(key, CompletableFuture.completedFuture(value));
+                continue;
+            }
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> loading = inFlight.putIfAbsent(key, future);
+            if (loading != null) {
+                futures.put(key, loading);
+                continue;
+            }
+            value = getIfPresentQuietly(key);
+            if (value != null) {
+                inFlight.remove(key, future);
+                future.complete(value);
+            } else {
+                owned.put(key, future);
             }
-            // put the data into the beginning
-            cache.put(key, value);
-            queue.offer(key);
+            futures.put(key, future);
+        }
+
+        if (!owned.isEmpty()) {
+            try {
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        Map<K, V> loaded = bulkLoader.apply(Collections.unmodifiableSet(owned.keySet()));
+                        recordLoad(loaded != null, start);
+                        owned.forEach((key, future) -> completeLoad(key, loaded == null ? null : loaded.get(key), future));
+                    } catch (Throwable t) {
+                        recordLoad(false, start);
+                        owned.forEach((key, future) -> {
+                            inFlight.remove(key, future);
+                            future.completeExceptionally(t);
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                owned.forEach((key, future) -> {
+                    inFlight.remove(key, future);
+                    future.completeExceptionally(e);
+                });
+            }
+        }
+
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    Map<K, V> result = new LinkedHashMap<>();
+                    futures.forEach((key, future) -> {
+                        V value = future.join();
+                        if (value != null) {
+                            result.put(key, value);
+                        }
+                    });
+                    return result;
+                });
+    }
+
+    private void recordLoad(boolean success, long start) {
+        long loadNanos = System.nanoTime() - start;
+        if (success) {
+            statsCounter.recordLoadSuccess(loadNanos);
+        } else {
+            statsCounter.recordLoadFailure(loadNanos);
+        }
+    }
+
+    private void completeLoad(K key, V loaded, CompletableFuture<V> future) {
+        V value = loaded == null
+                ? null
+                : doPut(key, loaded, expireAfterWriteNanos, expireAfterAccessNanos, true);
+        // Put before leaving the in-flight map, so a caller that misses right after finds the value
+        inFlight.remove(key, future);
+        future.complete(value);
+    }
+
+    /**
+     * Look up a live value without recording the access
+     */
+    private V getIfPresentQuietly(K key) {
+        Node<K, V> node = cache.get(key);
+        return node != null && isAlive(node) ? valueOf(node) : null;
+    }
+
+    private static boolean isAlive(ExpirableNode node) {
+        return node.expiresAt == ExpirableNode.NEVER || !node.isExpired(System.nanoTime());
+    }
+
+    /**
+     * For NearCache: the node of a live entry, the read is recorded like a get, or null if the key is missing
+     */
+    Node<K, V> getNode(K key) {
+        Node<K, V> node = cache.get(key);
+        if (node != null && !isReadable(node)) {
+            tryToCleanUp();
+            node = null;
+        }
+        if (node != null) {
+            afterRead(node);
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        return node;
+    }
+
+    static long versionOf(Node<?, ?> node) {
+        return node.version;
+    }
+
+    /**
+     * For NearCache: true if the node has not been updated or removed since it had the version and has not expired, reads only
+     */
+    static boolean isCurrent(Node<?, ?> node, long version) {
+        return version != Node.REMOVED && node.version == version && isAlive(node);
+    }
+
+    /**
+     * For NearCache: true if a hit must be read through the cache anyway, because an eighth of the expire-after-access
+     * duration has passed since its expiration was last pushed forward, or because it is due for a refresh. Reads only
+     */
+    boolean needsRead(Node<K, V> node) {
+        long accessTtl = node.accessTtlNanos;
+        if (accessTtl == 0 && refreshLoader == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (accessTtl > 0 && accessTtl - (node.expiresAt - now) > accessTtl >>> 3) {
+            return true;
+        }
+        return refreshLoader != null && node.refreshing == 0 && now - node.writeTime >= refreshAfterWriteNanos;
+    }
+
+    private void doPut(K key, V value, long writeTtlNanos, long accessTtlNanos) {
+        doPut(key, value, writeTtlNanos, accessTtlNanos, false);
+    }
+
+    /**
+     * @return the value in the cache after the put, which is the existing one if onlyIfAbsent and a live entry exists
+     */
+    private V doPut(K key, V value, long writeTtlNanos, long accessTtlNanos, boolean onlyIfAbsent) {
+        evictionLock.lock();
+        try {
+            maintenance();
+            V current = putLocked(key, value, writeTtlNanos, accessTtlNanos, onlyIfAbsent);
+            evictEntries();
+            return current;
         } finally {
-            lock.writeLock().unlock();
+            evictionLock.unlock();
         }
     }
 
+    /**
+     * Insert or update the entry without running the eviction, must be called with the eviction lock held
+     */
+    private V putLocked(K key, V value, long writeTtlNanos, long accessTtlNanos, boolean onlyIfAbsent) {
+        Node<K, V> node = cache.get(key);
+        if (onlyIfAbsent && node != null && isAlive(node)) {
+            return valueOf(node);
+        }
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must not be negative: " + weight);
+        }
+        statsCounter.recordPut();
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        if (node != null) {
+            storeValue(node, value);
+            weightedSize += weight - node.weight;
+            if (node.inWindow) {
+                windowWeightedSize += weight - node.weight;
+            }
+            node.weight = weight;
+            policyOf(node).onAccess(node);
+            setExpiration(node, writeTtlNanos, accessTtlNanos);
+            setWriteTime(node);
+        } else {
+            // put the data into the frequent used position, then evict the LRU nodes if the cache is full
+            node = new Node<>(key, slabs == null ? value : null);
+            storeValue(node, value);
+            node.weight = weight;
+            setExpiration(node, writeTtlNanos, accessTtlNanos);
+            setWriteTime(node);
+            cache.put(key, node);
+            weightedSize += weight;
+            if (sketch != null) {
+                node.inWindow = true;
+                window.onInsert(node);
+                windowWeightedSize += weight;
+            } else {
+                main.onInsert(node);
+            }
+        }
+        if (weight > maximum) {
+            // It would flush the whole cache and still not fit
+            removeNode(node, RemovalCause.SIZE);
+        }
+        return value;
+    }
+
+    /**
+     * Keep the value on the node, or serialize it into a new off-heap block and free the block of the previous value
+     */
+    private void storeValue(Node<K, V> node, V value) {
+        if (slabs == null) {
+            node.value = value;
+        } else {
+            long address = slabs.allocate(offHeapSerializer.sizeOf(value));
+            offHeapSerializer.write(value, slabs.data(address), 0);
+            long stamp = slabs.publish(address);
+            long previous = node.address;
+            node.address = address;
+            node.stamp = stamp;
+            if (previous != 0) {
+                slabs.free(previous);
+            }
+        }
+        // Bumped after the value is written, so a near cache copy read before the update is seen as stale
+        node.version++;
+    }
+
     public boolean evict(K key) {
-        lock.writeLock().lock();
+        evictionLock.lock();
         try {
-            if (cache.containsKey(key)) {
-                cache.remove(key);
-                queue.remove(key);
+            maintenance();
+            Node<K, V> node = cache.get(key);
+            if (node != null) {
+                removeNode(node, RemovalCause.EXPLICIT);
                 return true;
             }
         } catch (Exception e) {
             log.error("Error in removing key: {}, reason: {}", key, e.getMessage());
         } finally {
-            lock.writeLock().unlock();
+            evictionLock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * The number of entries, which may include expired entries that have not been purged yet
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * The total weight of the entries, equal to size() in the capacity mode
+     */
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            return weightedSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Replay the pending reads on the access order and purge the expired entries now,
+     * instead of waiting for the next write or a full buffer
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void afterRead(Node<K, V> node) {
+        if (!visitOnly(node) && readBuffer.offer(node) == StripedReadBuffer.FULL) {
+            tryToCleanUp();
+        }
+        refreshIfNeeded(node);
+    }
+
+    /**
+     * Start one asynchronous reload of a node that is older than the refresh interval, the reader does not wait for it
+     */
+    private void refreshIfNeeded(Node<K, V> node) {
+        if (refreshLoader == null || node.refreshing != 0 || System.nanoTime() - node.writeTime < refreshAfterWriteNanos) {
+            return;
+        }
+        if (!Node.REFRESHING.compareAndSet(node, 0, 1)) {
+            return;
+        }
+        long version = node.version;
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    V loaded = refreshLoader.apply(node.key);
+                    recordLoad(loaded != null, start);
+                    if (loaded != null) {
+                        completeRefresh(node, version, loaded);
+                    }
+                } catch (Throwable t) {
+                    recordLoad(false, start);
+                    log.warn("Error in refreshing key: {}, reason: {}", node.key, t.getMessage());
+                } finally {
+                    node.refreshing = 0;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            node.refreshing = 0;
+        }
+    }
+
+    /**
+     * Put the reloaded value unless the entry has been written or removed since the refresh started
+     */
+    private void completeRefresh(Node<K, V> node, long version, V value) {
+        evictionLock.lock();
+        try {
+            maintenance();
+            if (node.version == version && cache.get(node.key) == node) {
+                putLocked(node.key, value, expireAfterWriteNanos, expireAfterAccessNanos, false);
+                evictEntries();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the read has been applied by setting the visited bit, so it does not need to be replayed under the lock.
+     * An expire-after-access node still goes through the read buffer to move its timer
+     */
+    private boolean visitOnly(Node<K, V> node) {
+        if (visitOnlyReads && node.accessTtlNanos == 0) {
+            node.markVisited();
+            return true;
         }
         return false;
     }
 
+    private void tryToCleanUp() {
+        if (evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Must be called with the eviction lock held
+     */
+    private void maintenance() {
+        readBuffer.drainTo(accessRecorder);
+        if (!timerWheel.isEmpty()) {
+            timerWheel.advance(System.nanoTime(), expiryHandler);
+        }
+    }
+
+    private void setExpiration(Node<K, V> node, long writeTtlNanos, long accessTtlNanos) {
+        long ttlNanos = writeTtlNanos > 0 ? writeTtlNanos : accessTtlNanos;
+        node.accessTtlNanos = accessTtlNanos;
+        node.expiresAt = ttlNanos > 0 ? System.nanoTime() + ttlNanos : ExpirableNode.NEVER;
+        timerWheel.reschedule(node);
+    }
+
+    private void setWriteTime(Node<K, V> node) {
+        if (refreshLoader != null) {
+            node.writeTime = System.nanoTime();
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (sketch != null) {
+            sketch.increment(node.key);
+        }
+        // The node may have been evicted after the read was recorded
+        EvictionPolicy<Node<K, V>> policy = policyOf(node);
+        if (policy.contains(node)) {
+            policy.onAccess(node);
+            // The reader has pushed the expiration time forward, move the timer along with it
+            if (node.accessTtlNanos > 0) {
+                timerWheel.reschedule(node);
+            }
+        }
+    }
+
+    private void evictEntries() {
+        // Move the overflow of the admission window into the main region, each candidate has to win against the main victim
+        while (windowWeightedSize > windowMaximum) {
+            Node<K, V> candidate = window.victim();
+            window.onRemove(candidate);
+            windowWeightedSize -= candidate.weight;
+            candidate.inWindow = false;
+            boolean admitted = true;
+            // A heavy candidate may have to win against several victims to make room
+            while (weightedSize > maximum) {
+                Node<K, V> victim = main.victim();
+                if (victim == null) {
+                    break;
+                }
+                if (sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    admitted = false;
+                    break;
+                }
+                removeNode(victim, RemovalCause.SIZE);
+            }
+            if (admitted) {
+                main.onInsert(candidate);
+            } else {
+                removeNode(candidate, RemovalCause.SIZE);
+            }
+        }
+        while (weightedSize > maximum) {
+            Node<K, V> victim = main.victim();
+            removeNode(victim != null ? victim : window.victim(), RemovalCause.SIZE);
+        }
+    }
+
+    private void removeNode(Node<K, V> node, RemovalCause cause) {
+        if (cache.remove(node.key, node)) {
+            weightedSize -= node.weight;
+            statsCounter.recordEviction(cause);
+        }
+        // A removed node never becomes current again, even for a copy that read its version after the removal
+        node.version = Node.REMOVED;
+        timerWheel.deschedule(node);
+        if (node.address != 0) {
+            long address = node.address;
+            // Readers that see the cleared address stop retrying, the ones still on the block see it freed
+            node.address = 0;
+            slabs.free(address);
+        }
+        EvictionPolicy<Node<K, V>> policy = policyOf(node);
+        if (policy.contains(node)) {
+            policy.onRemove(node);
+            if (node.inWindow) {
+                windowWeightedSize -= node.weight;
+            }
+        }
+    }
+
+    /**
+     * Write the entries to the snapshot file in eviction order, the expired entries are left out.
+     * Only the copy of the node references holds the eviction lock, the values are serialized after it is released,
+     * so a value replaced in the meantime may be written with its new content
+     *
+     * @return the number of entries written
+     */
+    public int writeSnapshot(Path path) throws IOException {
+        if (keySerializer == null) {
+            throw new IllegalStateException("the cache was built without snapshotSerializers");
+        }
+        List<Node<K, V>> nodes;
+        evictionLock.lock();
+        try {
+            maintenance();
+            nodes = new ArrayList<>(cache.size());
+            // The window holds the newest entries, so it goes last
+            main.forEach(nodes::add);
+            window.forEach(nodes::add);
+        } finally {
+            evictionLock.unlock();
+        }
+
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        int count = nodes.size();
+        List<K> keys = new ArrayList<>(count);
+        List<V> values = new ArrayList<>(count);
+        long[] expiresAt = new long[count];
+        long[] accessTtlNanos = new long[count];
+        int[] keyLengths = new int[count];
+        int[] valueLengths = new int[count];
+        long length = 0;
+        int live = 0;
+        for (Node<K, V> node : nodes) {
+            // Read the volatile fields once, the serialized size has to match what is written
+            long nodeExpiresAt = node.expiresAt;
+            V value = valueOf(node);
+            if (value == null || nodeExpiresAt - nowNanos <= 0 && nodeExpiresAt != ExpirableNode.NEVER) {
+                continue;
+            }
+            keys.add(node.key);
+            values.add(value);
+            expiresAt[live] = nodeExpiresAt;
+            accessTtlNanos[live] = node.accessTtlNanos;
+            keyLengths[live] = keySerializer.sizeOf(node.key);
+            valueLengths[live] = valueSerializer.sizeOf(value);
+            length += SNAPSHOT_ENTRY_HEADER_LENGTH + keyLengths[live] + valueLengths[live];
+            live++;
+        }
+        int written = live;
+        SnapshotFile.write(path, SnapshotFile.KIND_GENERIC, written, length, buffer -> {
+            int offset = SnapshotFile.HEADER_LENGTH;
+            for (int i = 0; i < written; i++) {
+                SnapshotFile.putExpiration(buffer, offset, expiresAt[i], accessTtlNanos[i], nowNanos, nowMillis);
+                offset += SnapshotFile.EXPIRATION_LENGTH;
+                buffer.putInt(offset, keyLengths[i], SnapshotFile.ORDER);
+                buffer.putInt(offset + Integer.BYTES, valueLengths[i], SnapshotFile.ORDER);
+                offset += 2 * Integer.BYTES;
+                keySerializer.write(keys.get(i), buffer, offset);
+                offset += keyLengths[i];
+                valueSerializer.write(values.get(i), buffer, offset);
+                offset += valueLengths[i];
+            }
+        });
+        return written;
+    }
+
+    /**
+     * writeSnapshot on the executor of the cache
+     */
+    public CompletableFuture<Integer> writeSnapshotAsync(Path path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return writeSnapshot(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private int restoreSnapshot(Path path) throws IOException {
+        return SnapshotFile.read(path, SnapshotFile.KIND_GENERIC, SNAPSHOT_ENTRY_HEADER_LENGTH, buffer -> {
+            int count = SnapshotFile.count(buffer);
+            long nowMillis = System.currentTimeMillis();
+            List<K> keys = new ArrayList<>(count);
+            List<V> values = new ArrayList<>(count);
+            long[] writeTtlNanos = new long[count];
+            long[] accessTtlNanos = new long[count];
+            int offset = SnapshotFile.HEADER_LENGTH;
+            int live = 0;
+            for (int i = 0; i < count; i++) {
+                long remainingNanos = SnapshotFile.remainingNanos(buffer, offset, nowMillis);
+                long accessTtl = SnapshotFile.accessTtlNanos(buffer, offset);
+                offset += SnapshotFile.EXPIRATION_LENGTH;
+                int keyLength = buffer.getInt(offset, SnapshotFile.ORDER);
+                int valueLength = buffer.getInt(offset + Integer.BYTES, SnapshotFile.ORDER);
+                offset += 2 * Integer.BYTES;
+                // A serializer may allocate by the length, so a corrupt one is rejected before it is read
+                if (keyLength < 0 || valueLength < 0 || (long) keyLength + valueLength > buffer.capacity() - offset) {
+                    throw new IllegalStateException("corrupt snapshot entry " + i + ": key length " + keyLength
+                            + ", value length " + valueLength);
+                }
+                if (remainingNanos >= 0) {
+                    keys.add(keySerializer.read(buffer, offset, keyLength));
+                    values.add(valueSerializer.read(buffer, offset + keyLength, valueLength));
+                    if (remainingNanos > 0 || accessTtl > 0) {
+                        writeTtlNanos[live] = remainingNanos;
+                        accessTtlNanos[live] = accessTtl;
+                    } else {
+                        // No expiration was recorded, so the entry follows the expiration of this cache
+                        writeTtlNanos[live] = expireAfterWriteNanos;
+                        accessTtlNanos[live] = expireAfterAccessNanos;
+                    }
+                    live++;
+                }
+                offset += keyLength + valueLength;
+            }
+
+            // Keep the newest entries that fit, the older ones would only be evicted again
+            int first = live;
+            long weight = 0;
+            while (first > 0) {
+                weight += weigher.weigh(keys.get(first - 1), values.get(first - 1));
+                if (weight > maximum) {
+                    break;
+                }
+                first--;
+            }
+            evictionLock.lock();
+            try {
+                for (int i = first; i < live; i++) {
+                    putLocked(keys.get(i), values.get(i), writeTtlNanos[i], accessTtlNanos[i], false);
+                }
+                evictEntries();
+            } finally {
+                evictionLock.unlock();
+            }
+            return live - first;
+        });
+    }
+
+    /**
+     * The direct memory used by the off-heap values and reserved in slabs, both 0 unless the cache was built with offHeap
+     */
+    public long offHeapUsedBytes() {
+        if (slabs == null) {
+            return 0;
+        }
+        evictionLock.lock();
+        try {
+            return slabs.usedBytes();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long offHeapReservedBytes() {
+        if (slabs == null) {
+            return 0;
+        }
+        evictionLock.lock();
+        try {
+            return slabs.reservedBytes();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * An immutable snapshot of the statistics, all zero unless the cache was built with recordStats()
+     */
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    private EvictionPolicy<Node<K, V>> policyOf(Node<K, V> node) {
+        return node.inWindow ? window : main;
+    }
+
     @Override
     public String toString() {
-        return "ConcurrentLRUCache{" +
+        return "GenericConcurrentLRUCache{" +
                 "cache=" + cache +
-                ", capacity=" + capacity +
+                ", maximum=" + maximum +
+                ", policy=" + policyType +
+                ", admission=" + (sketch != null) +
                 '}';
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static final class Builder<K, V> {
+        private long maximum;
+        private Weigher<? super K, ? super V> weigher = Weigher.singleton();
+        private boolean capacitySet;
+        private boolean weigherSet;
+        private boolean admission;
+        private long expireAfterWriteNanos;
+        private long expireAfterAccessNanos;
+        private Executor executor = ForkJoinPool.commonPool();
+        private StatsCounter statsCounter = StatsCounter.disabled();
+        private EvictionPolicyType policyType = EvictionPolicyType.LRU;
+        private CacheSerializer<K> keySerializer;
+        private CacheSerializer<V> valueSerializer;
+        private Path snapshotPath;
+        private CacheSerializer<V> offHeapSerializer;
+        private int slabSize = 1 << 20;
+        private Function<? super K, ? extends V> refreshLoader;
+        private long refreshAfterWriteNanos;
+
+        private Builder() {
+        }
+
+        /**
+         * Bound the number of entries
+         */
+        public Builder<K, V> capacity(int capacity) {
+            if (weigherSet) {
+                throw new IllegalStateException("capacity can not be combined with maximumWeight");
+            }
+            this.maximum = capacity;
+            this.capacitySet = true;
+            return this;
+        }
+
+        /**
+         * Bound the total weight of the entries, the weight of an entry is calculated by the weigher when it is put
+         */
+        public Builder<K, V> maximumWeight(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+            if (capacitySet) {
+                throw new IllegalStateException("maximumWeight can not be combined with capacity");
+            }
+            this.maximum = maximumWeight;
+            this.weigher = Objects.requireNonNull(weigher);
+            this.weigherSet = true;
+            return this;
+        }
+
+        /**
+         * Enable the W-TinyLFU admission window and frequency sketch in front of the LRU eviction
+         */
+        public Builder<K, V> admission(boolean admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        /**
+         * Every entry expires once the duration has passed since it was created or last replaced
+         */
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            this.expireAfterWriteNanos = positiveNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * Every entry expires once the duration has passed since it was last read or written
+         */
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            this.expireAfterAccessNanos = positiveNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * Reload an entry on the executor once it is older than the duration and read again,
+         * the readers keep getting the current value while the reload runs
+         */
+        public Builder<K, V> refreshAfterWrite(long duration, TimeUnit unit, Function<? super K, ? extends V> loader) {
+            long nanos = unit.toNanos(duration);
+            if (nanos <= 0) {
+                throw new IllegalArgumentException("duration must be positive: " + duration);
+            }
+            this.refreshAfterWriteNanos = nanos;
+            this.refreshLoader = Objects.requireNonNull(loader);
+            return this;
+        }
+
+        /**
+         * The executor that runs the loaders of getOrLoad, getAllOrLoad and the refreshes, ForkJoinPool.commonPool() by default
+         */
+        public Builder<K, V> executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Record the statistics with a ConcurrentStatsCounter
+         */
+        public Builder<K, V> recordStats() {
+            return recordStats(new ConcurrentStatsCounter());
+        }
+
+        public Builder<K, V> recordStats(StatsCounter statsCounter) {
+            this.statsCounter = Objects.requireNonNull(statsCounter);
+            return this;
+        }
+
+        /**
+         * The policy that orders the entries for eviction, in the main region when admission is enabled
+         */
+        public Builder<K, V> evictionPolicy(EvictionPolicyType policyType) {
+            this.policyType = Objects.requireNonNull(policyType);
+            return this;
+        }
+
+        /**
+         * The serializers of the keys and values in the snapshot file, required by writeSnapshot and loadSnapshot
+         */
+        public Builder<K, V> snapshotSerializers(CacheSerializer<K> keySerializer, CacheSerializer<V> valueSerializer) {
+            this.keySerializer = Objects.requireNonNull(keySerializer);
+            this.valueSerializer = Objects.requireNonNull(valueSerializer);
+            return this;
+        }
+
+        /**
+         * Restore the entries of the snapshot file when the cache is built, a missing or broken file leaves the cache empty
+         */
+        public Builder<K, V> loadSnapshot(Path snapshotPath) {
+            this.snapshotPath = Objects.requireNonNull(snapshotPath);
+            return this;
+        }
+
+        /**
+         * Store the values off-heap in slabs of 1MB, a value must be serialized to less than a slab
+         */
+        public Builder<K, V> offHeap(CacheSerializer<V> valueSerializer) {
+            return offHeap(valueSerializer, 1 << 20);
+        }
+
+        /**
+         * Store the values off-heap, the slab size is a power of two and bounds the size of a serialized value
+         */
+        public Builder<K, V> offHeap(CacheSerializer<V> valueSerializer, int slabSize) {
+            this.offHeapSerializer = Objects.requireNonNull(valueSerializer);
+            this.slabSize = slabSize;
+            return this;
+        }
+
+        public GenericConcurrentLRUCache<K, V> build() {
+            if (snapshotPath != null && keySerializer == null) {
+                throw new IllegalStateException("loadSnapshot requires snapshotSerializers");
+            }
+            return new GenericConcurrentLRUCache<>(this);
+        }
+
+        private static long positiveNanos(long duration, TimeUnit unit) {
+            long nanos = unit.toNanos(duration);
+            if (nanos <= 0) {
+                throw new IllegalArgumentException("duration must be positive: " + duration + " " + unit);
+            }
+            return nanos;
+        }
+    }
+
+    static final class Node<K, V> extends PolicyNode {
+        static final long REMOVED = -1;
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Node> REFRESHING = AtomicIntegerFieldUpdater.newUpdater(Node.class, "refreshing");
+
+        private final K key;
+        private volatile V value;
+        private volatile long accessTtlNanos;
+        // The off-heap block of the value and the stamp it was published with, 0 if the value is on-heap or removed
+        private volatile long address;
+        private volatile long stamp;
+        // Bumped on every update and set to REMOVED on removal under the eviction lock, see NearCache
+        private volatile long version;
+        // Only set when refreshAfterWrite is used
+        private volatile long writeTime;
+        // 1 while a refresh of the node is running
+        private volatile int refreshing;
+        // Guarded by the eviction lock
+        private int weight;
+        private boolean inWindow;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Node{" +
+                    "key=" + key +
+                    ", value=" + value +
+                    '}';
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
         int capacity = 3;
         GenericConcurrentLRUCache<Integer, Integer> cache = new GenericConcurrentLRUCache<>(capacity);
 
@@ -145,5 +1337,130 @@ public class GenericConcurrentLRUCache<K, V> {
         log.info("cache.get(2).value: {}", cache.get(2));
         // False, Key 4 should be in the cache
         log.info("cache.get(4) == null? {}", cache.get(4) == null);
+
+        // Hits on a large cache are a map lookup plus a ring buffer append, no O(n) scan of the access order
+        int largeCapacity = 100_000;
+        GenericConcurrentLRUCache<Integer, Integer> largeCache = new GenericConcurrentLRUCache<>(largeCapacity);
+        for (int i = 0; i < largeCapacity; i++) {
+            largeCache.put(i, i);
+        }
+        int reads = 10_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            largeCache.get(ThreadLocalRandom.current().nextInt(largeCapacity));
+        }
+        log.info("{} hits on {} entries: {} ns/op", reads, largeCapacity, (System.nanoTime() - start) / reads);
+
+        // Expire-after-write for the whole cache, and a shorter time to live for one entry
+        GenericConcurrentLRUCache<Integer, Integer> expiringCache = GenericConcurrentLRUCache.<Integer, Integer>builder()
+                .capacity(capacity)
+                .expireAfterWrite(500, TimeUnit.MILLISECONDS)
+                .build();
+        expiringCache.put(1, 10);
+        expiringCache.put(2, 20, 100, TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(200);
+        // 10, null
+        log.info("after 200ms: cache.get(1): {}, cache.get(2): {}", expiringCache.get(1), expiringCache.get(2));
+        TimeUnit.MILLISECONDS.sleep(400);
+        expiringCache.cleanUp();
+        // null, 0
+        log.info("after 600ms: cache.get(1): {}, size: {}", expiringCache.get(1), expiringCache.size());
+
+        // A miss storm on one hot key: 8 threads miss at the same time, the backend is called only once
+        GenericConcurrentLRUCache<Integer, Integer> loadingCache = new GenericConcurrentLRUCache<>(capacity);
+        AtomicInteger backendCalls = new AtomicInteger();
+        List<CompletableFuture<Integer>> loads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            loads.add(loadingCache.getOrLoad(42, key -> {
+                backendCalls.incrementAndGet();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return key * 10;
+            }));
+        }
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+        // 420, 1
+        log.info("loaded: {}, backend calls: {}", loads.get(0).join(), backendCalls.get());
+        // {42=420, 43=430, 44=440}, one bulk call for the keys 43 and 44
+        log.info("getAllOrLoad: {}", loadingCache.getAllOrLoad(List.of(42, 43, 44), keys -> {
+            log.info("bulk load: {}", keys);
+            Map<Integer, Integer> result = new HashMap<>();
+            keys.forEach(key -> result.put(key, key * 10));
+            return result;
+        }).join());
+
+        // Bound the total size of the values: one 700 bytes value evicts the small ones until it fits in 1000 bytes
+        GenericConcurrentLRUCache<String, byte[]> weightedCache = GenericConcurrentLRUCache.<String, byte[]>builder()
+                .maximumWeight(1000, (key, value) -> value.length)
+                .build();
+        for (int i = 0; i < 10; i++) {
+            weightedCache.put("small-" + i, new byte[100]);
+        }
+        weightedCache.put("large", new byte[700]);
+        // 4, 1000
+        log.info("entries: {}, weight: {}", weightedCache.size(), weightedCache.weightedSize());
+
+        // Statistics of a random workload
+        GenericConcurrentLRUCache<Integer, Integer> statsCache = GenericConcurrentLRUCache.<Integer, Integer>builder()
+                .capacity(1_000)
+                .recordStats()
+                .snapshotSerializers(CacheSerializer.integers(), CacheSerializer.integers())
+                .build();
+        for (int i = 0; i < 1_000_000; i++) {
+            int key = ThreadLocalRandom.current().nextInt(2_000);
+            if (statsCache.get(key) == null) {
+                statsCache.put(key, key);
+            }
+        }
+        log.info("stats: {}", statsCache.stats());
+
+        // Refresh-ahead: the readers of a stale entry get the current value at once, and only one reload runs
+        AtomicInteger refreshCalls = new AtomicInteger();
+        GenericConcurrentLRUCache<String, Integer> refreshingCache = GenericConcurrentLRUCache.<String, Integer>builder()
+                .capacity(capacity)
+                .refreshAfterWrite(100, TimeUnit.MILLISECONDS, key -> {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return refreshCalls.incrementAndGet() * 100;
+                })
+                .build();
+        refreshingCache.put("config", 0);
+        TimeUnit.MILLISECONDS.sleep(150);
+        CountDownLatch readers = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(() -> {
+                // 0, the old value without waiting for the reload
+                refreshingCache.get("config");
+                readers.countDown();
+            }).start();
+        }
+        readers.await();
+        TimeUnit.MILLISECONDS.sleep(100);
+        // 100, refresh calls: 1
+        log.info("after refresh: {}, refresh calls: {}", refreshingCache.get("config"), refreshCalls.get());
+
+        // Warm restart: write the snapshot in the background, then build a new cache from it
+        Path snapshot = Files.createTempFile("GenericConcurrentLRUCache", ".snapshot");
+        log.info("snapshot entries: {}", statsCache.writeSnapshotAsync(snapshot).join());
+        GenericConcurrentLRUCache<Integer, Integer> restartedCache = GenericConcurrentLRUCache.<Integer, Integer>builder()
+                .capacity(1_000)
+                .snapshotSerializers(CacheSerializer.integers(), CacheSerializer.integers())
+                .loadSnapshot(snapshot)
+                .build();
+        int restoredHits = 0;
+        for (int key = 0; key < 2_000; key++) {
+            if (restartedCache.get(key) != null) {
+                restoredHits++;
+            }
+        }
+        // 1000, 1000: the hot set is back without touching the backend
+        log.info("restarted size: {}, hits: {}", restartedCache.size(), restoredHits);
+        Files.delete(snapshot);
     }
 }
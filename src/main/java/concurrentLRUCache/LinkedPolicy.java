@@ -0,0 +1,58 @@
+package concurrentLRUCache;
+
+import java.util.function.Consumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * The circular doubly linked list with a sentinel that the eviction policies are built on
+ *
+ * <p>
+ * sentinel.next is the oldest node and sentinel.prev is the newest one, a node is in the list if and only if its next is not null
+ */
+abstract class LinkedPolicy<N extends PolicyNode> implements EvictionPolicy<N> {
+
+    protected final PolicyNode sentinel = new Sentinel();
+
+    @Override
+    public boolean contains(N node) {
+        return node.next != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super N> action) {
+        for (PolicyNode node = sentinel.next; node != sentinel; node = node.next) {
+            action.accept((N) node);
+        }
+    }
+
+    protected boolean isEmpty() {
+        return sentinel.next == sentinel;
+    }
+
+    protected void linkLast(PolicyNode node) {
+        linkBefore(sentinel, node);
+    }
+
+    protected void linkBefore(PolicyNode successor, PolicyNode node) {
+        node.next = successor;
+        node.prev = successor.prev;
+        successor.prev.next = node;
+        successor.prev = node;
+    }
+
+    protected void unlink(PolicyNode node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Sentinel extends PolicyNode {
+        Sentinel() {
+            prev = this;
+            next = this;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * Strict LRU: the oldest node is the least recently used one, and every hit moves the node to the newest position
+ */
+final class LruPolicy<N extends PolicyNode> extends LinkedPolicy<N> {
+
+    @Override
+    public void onInsert(N node) {
+        linkLast(node);
+    }
+
+    @Override
+    public void onAccess(N node) {
+        if (sentinel.prev != node) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    @Override
+    public void onRemove(N node) {
+        unlink(node);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public N victim() {
+        return isEmpty() ? null : (N) sentinel.next;
+    }
+
+    @Override
+    public boolean reordersOnAccess() {
+        return true;
+    }
+}
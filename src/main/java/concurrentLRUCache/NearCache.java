@@ -0,0 +1,384 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 20:45
+ * A two-level near cache: a small thread-local L1 in front of a shared {@link GenericConcurrentLRUCache} (L2)
+ *
+ * <p>
+ * 1. Every thread has its own 2-way set associative L1 table, a slot keeps the key, the L2 node, the version of the node and the value.
+ * A slot that has been hit since the last fill of its set gets a second chance, so the cold keys do not keep pushing the hot ones out
+ * 2. An L1 hit only reads the shared node: its version must still be the one that was copied and it must not have expired.
+ * put, evict, expiration and eviction of L2 bump the version, so a stale copy is never returned and no invalidation has to be sent
+ * 3. Nothing shared is written on an L1 hit, so the hottest keys no longer bounce cache lines between the cores.
+ * L2 does not see those reads though, so every sampleInterval-th L1 hit is read from L2 as well to keep the hot keys recent
+ * 4. An L1 hit is also read from L2 when the entry needs it: an expire-after-access entry once an eighth of its duration
+ * has passed since its expiration was pushed forward, so it expires at the earliest 7/8 of the duration after its last read,
+ * and an entry due for refreshAfterWrite, so the reload starts on the first hit after the interval
+ * 5. The hit counters are plain fields of each thread, stats() sums them, so the numbers are approximate while the threads are running.
+ * The counters of a finished thread are folded into shared totals and dropped, so a pool that replaces its threads does not grow them
+ * <p>
+ * A slot keeps its node and value reachable until it is overwritten, so an L1 holds at most l1Size stale values per thread
+ */
+@Slf4j
+public class NearCache<K, V> {
+
+    private final GenericConcurrentLRUCache<K, V> shared;
+    private final int sampleInterval;
+    private final ThreadLocal<L1<K, V>> l1;
+    // The counters of the live threads, only the counters are kept, never the L1 tables
+    private final Queue<Counters> counters = new ConcurrentLinkedQueue<>();
+    // The hits of the finished threads
+    private final LongAdder retiredL1Hits = new LongAdder();
+    private final LongAdder retiredL2Hits = new LongAdder();
+    private final LongAdder retiredMisses = new LongAdder();
+
+    public NearCache(GenericConcurrentLRUCache<K, V> shared) {
+        this(shared, 256, 32);
+    }
+
+    /**
+     * @param l1Size         the number of slots of every thread-local L1, rounded up to a power of two of at least 2
+     * @param sampleInterval every sampleInterval-th L1 hit is also read from L2, 1 reads every hit from L2
+     */
+    public NearCache(GenericConcurrentLRUCache<K, V> shared, int l1Size, int sampleInterval) {
+        if (l1Size <= 0 || l1Size > 1 << 20) {
+            throw new IllegalArgumentException("l1Size must be in (0, 2^20]: " + l1Size);
+        }
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("sampleInterval must be positive: " + sampleInterval);
+        }
+        this.shared = shared;
+        this.sampleInterval = sampleInterval;
+        // At least one set of 2 ways
+        int slots = Math.max(2, 1 << -Integer.numberOfLeadingZeros(l1Size - 1));
+        l1 = ThreadLocal.withInitial(() -> {
+            retireFinishedThreads();
+            L1<K, V> local = new L1<>(slots, sampleInterval);
+            counters.add(local.counters);
+            return local;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        L1<K, V> local = l1.get();
+        int slot = local.find(key);
+        if (slot >= 0) {
+            local.counters.l1Hits++;
+            local.referenced[slot] = true;
+            boolean sampled = --local.untilSample <= 0;
+            if (!sampled && !shared.needsRead(local.nodes[slot])) {
+                return (V) local.values[slot];
+            }
+            // Let L2 see this read as well, which also refreshes the slot
+            if (sampled) {
+                local.untilSample = sampleInterval;
+            }
+            return load(local, key);
+        }
+        V value = load(local, key);
+        if (value != null) {
+            local.counters.l2Hits++;
+        } else {
+            local.counters.misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Put into L2, the L1 copies of the key in every thread become stale through the version of the node
+     */
+    public void put(K key, V value) {
+        shared.put(key, value);
+    }
+
+    public void put(K key, V value, long duration, TimeUnit unit) {
+        shared.put(key, value, duration, unit);
+    }
+
+    public boolean evict(K key) {
+        return shared.evict(key);
+    }
+
+    public GenericConcurrentLRUCache<K, V> shared() {
+        return shared;
+    }
+
+    public Stats stats() {
+        retireFinishedThreads();
+        long l1Hits = retiredL1Hits.sum();
+        long l2Hits = retiredL2Hits.sum();
+        long misses = retiredMisses.sum();
+        for (Counters counter : counters) {
+            l1Hits += counter.l1Hits;
+            l2Hits += counter.l2Hits;
+            misses += counter.misses;
+        }
+        return new Stats(l1Hits, l2Hits, misses);
+    }
+
+    /**
+     * Fold the counters of the finished threads into the totals, only the thread that removes a counter folds it
+     */
+    private void retireFinishedThreads() {
+        for (Counters counter : counters) {
+            if (counter.isFinished() && counters.remove(counter)) {
+                retiredL1Hits.add(counter.l1Hits);
+                retiredL2Hits.add(counter.l2Hits);
+                retiredMisses.add(counter.misses);
+            }
+        }
+    }
+
+    private V load(L1<K, V> local, K key) {
+        GenericConcurrentLRUCache.Node<K, V> node = shared.getNode(key);
+        if (node == null) {
+            local.remove(key);
+            return null;
+        }
+        // Read the version before the value, if the node is updated in between the copy is not kept
+        long version = GenericConcurrentLRUCache.versionOf(node);
+        V value = shared.valueOf(node);
+        if (value != null && GenericConcurrentLRUCache.isCurrent(node, version)) {
+            int slot = local.victim(key);
+            local.referenced[slot] = false;
+            local.keys[slot] = key;
+            local.nodes[slot] = node;
+            local.versions[slot] = version;
+            local.values[slot] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache{" +
+                "shared=" + shared +
+                ", stats=" + stats() +
+                '}';
+    }
+
+    private static final class L1<K, V> {
+        private final Object[] keys;
+        private final GenericConcurrentLRUCache.Node<K, V>[] nodes;
+        private final long[] versions;
+        private final Object[] values;
+        private final boolean[] referenced;
+        private final int mask;
+        private final Counters counters = new Counters(Thread.currentThread());
+        private int untilSample;
+
+        L1(int slots, int sampleInterval) {
+            keys = new Object[slots];
+            @SuppressWarnings("unchecked")
+            GenericConcurrentLRUCache.Node<K, V>[] created = (GenericConcurrentLRUCache.Node<K, V>[]) new GenericConcurrentLRUCache.Node<?, ?>[slots];
+            nodes = created;
+            versions = new long[slots];
+            values = new Object[slots];
+            referenced = new boolean[slots];
+            mask = slots - 1;
+            untilSample = sampleInterval;
+        }
+
+        /**
+         * @return the slot of a live copy of the key, or -1
+         */
+        int find(Object key) {
+            int slot = setOf(key);
+            if (!isLive(slot, key)) {
+                slot ^= 1;
+                if (!isLive(slot, key)) {
+                    return -1;
+                }
+            }
+            return slot;
+        }
+
+        /**
+         * The slot for a new copy of the key: its old copy, an empty or stale slot, or the one not hit since the last fill of the set
+         */
+        int victim(Object key) {
+            int first = setOf(key);
+            int second = first ^ 1;
+            if (key.equals(keys[first]) || !isLive(first, keys[first])) {
+                return first;
+            }
+            if (key.equals(keys[second]) || !isLive(second, keys[second])) {
+                return second;
+            }
+            if (!referenced[first]) {
+                return first;
+            }
+            if (!referenced[second]) {
+                return second;
+            }
+            referenced[second] = false;
+            return first;
+        }
+
+        void remove(Object key) {
+            int slot = setOf(key);
+            for (int i = 0; i < 2; i++, slot ^= 1) {
+                if (key.equals(keys[slot])) {
+                    keys[slot] = null;
+                    nodes[slot] = null;
+                    values[slot] = null;
+                }
+            }
+        }
+
+        private boolean isLive(int slot, Object key) {
+            GenericConcurrentLRUCache.Node<K, V> node = nodes[slot];
+            return node != null && key != null && key.equals(keys[slot]) && GenericConcurrentLRUCache.isCurrent(node, versions[slot]);
+        }
+
+        private int setOf(Object key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask & ~1;
+        }
+    }
+
+    /**
+     * Written only by the owner thread, it does not reference the L1 table, so a finished thread leaves nothing large behind
+     */
+    private static final class Counters {
+        private final WeakReference<Thread> owner;
+        private long l1Hits;
+        private long l2Hits;
+        private long misses;
+
+        Counters(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        /**
+         * The end of a thread happens-before isAlive() returns false, so its last counts are visible then
+         */
+        boolean isFinished() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    /**
+     * The hits of each level, the L2 hit rate is over the requests that missed L1
+     */
+    public static final class Stats {
+        private final long l1HitCount;
+        private final long l2HitCount;
+        private final long missCount;
+
+        Stats(long l1HitCount, long l2HitCount, long missCount) {
+            this.l1HitCount = l1HitCount;
+            this.l2HitCount = l2HitCount;
+            this.missCount = missCount;
+        }
+
+        public long l1HitCount() {
+            return l1HitCount;
+        }
+
+        public long l2HitCount() {
+            return l2HitCount;
+        }
+
+        public long missCount() {
+            return missCount;
+        }
+
+        public long requestCount() {
+            return l1HitCount + l2HitCount + missCount;
+        }
+
+        public double l1HitRate() {
+            long requests = requestCount();
+            return requests == 0 ? 1.0 : (double) l1HitCount / requests;
+        }
+
+        public double l2HitRate() {
+            long l1Misses = l2HitCount + missCount;
+            return l1Misses == 0 ? 1.0 : (double) l2HitCount / l1Misses;
+        }
+
+        public double hitRate() {
+            long requests = requestCount();
+            return requests == 0 ? 1.0 : (double) (l1HitCount + l2HitCount) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "l1HitCount=" + l1HitCount +
+                    ", l2HitCount=" + l2HitCount +
+                    ", missCount=" + missCount +
+                    ", l1HitRate=" + String.format("%.4f", l1HitRate()) +
+                    ", l2HitRate=" + String.format("%.4f", l2HitRate()) +
+                    ", hitRate=" + String.format("%.4f", hitRate()) +
+                    '}';
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        GenericConcurrentLRUCache<Integer, Integer> shared = new GenericConcurrentLRUCache<>(10_000);
+        NearCache<Integer, Integer> nearCache = new NearCache<>(shared);
+        nearCache.put(1, 10);
+        // 10, then key 1 is in the L1 of the main thread
+        log.info("nearCache.get(1): {}", nearCache.get(1));
+        // An update from another thread makes the L1 copy stale
+        Thread writer = new Thread(() -> nearCache.put(1, 11));
+        writer.start();
+        writer.join();
+        // 11
+        log.info("nearCache.get(1) after the update: {}", nearCache.get(1));
+        nearCache.evict(1);
+        // null
+        log.info("nearCache.get(1) after evict: {}", nearCache.get(1));
+
+        // 90% of the reads go to 100 hot keys
+        for (int i = 0; i < 10_000; i++) {
+            shared.put(i, i);
+        }
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 3; round++) {
+            double sharedNanos = readAll(threads, shared::get);
+            double nearNanos = readAll(threads, nearCache::get);
+            log.info("threads: {}, shared only: {} ns/get, near cache: {} ns/get", threads,
+                    String.format("%.1f", sharedNanos), String.format("%.1f", nearNanos));
+        }
+        log.info("near cache stats: {}", nearCache.stats());
+    }
+
+    private static double readAll(int threads, IntFunction<Integer> reader) throws InterruptedException {
+        int reads = 2_000_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < reads; i++) {
+                    reader.apply(random.nextInt(10) < 9 ? random.nextInt(100) : random.nextInt(20_000));
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executorService.shutdown();
+        return (double) elapsed / ((long) threads * reads);
+    }
+}
@@ -0,0 +1,93 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.DirectBuffer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 20:20
+ * Compare the on-heap values of {@link GenericConcurrentLRUCache} with the off-heap tier
+ *
+ * <p>
+ * 1. Heap: the heap used after a full GC once the cache is filled with 4KB values
+ * 2. GC: the collections and their total time while the values are replaced at random
+ * 3. Reads: get, which copies the value, against getView, which reads the value in place
+ */
+@Slf4j
+public class OffHeapTierComparison {
+
+    private static final int ENTRIES = 20_000;
+    private static final int VALUE_SIZE = 4 * 1024;
+    private static final int OPERATIONS = 500_000;
+
+    public static void main(String[] args) {
+        for (boolean offHeap : new boolean[]{false, true, false, true}) {
+            GenericConcurrentLRUCache.Builder<Integer, byte[]> builder = GenericConcurrentLRUCache.<Integer, byte[]>builder()
+                    .capacity(ENTRIES);
+            if (offHeap) {
+                builder.offHeap(CacheSerializer.bytes());
+            }
+            GenericConcurrentLRUCache<Integer, byte[]> cache = builder.build();
+            for (int i = 0; i < ENTRIES; i++) {
+                cache.put(i, new byte[VALUE_SIZE]);
+            }
+            System.gc();
+            long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            long gcCount = gcCount();
+            long gcMillis = gcMillis();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS; i++) {
+                cache.put(random.nextInt(ENTRIES), new byte[VALUE_SIZE]);
+            }
+            gcCount = gcCount() - gcCount;
+            gcMillis = gcMillis() - gcMillis;
+
+            long begin = System.nanoTime();
+            long checksum = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                checksum += cache.get(random.nextInt(ENTRIES))[0];
+            }
+            long getNanos = (System.nanoTime() - begin) / OPERATIONS;
+            long viewNanos = -1;
+            if (offHeap) {
+                OffHeapValueView view = new OffHeapValueView();
+                begin = System.nanoTime();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    if (cache.getView(random.nextInt(ENTRIES), view)) {
+                        DirectBuffer buffer = view.buffer();
+                        byte first = buffer.getByte(0);
+                        if (view.isValid()) {
+                            checksum += first;
+                        }
+                    }
+                }
+                viewNanos = (System.nanoTime() - begin) / OPERATIONS;
+            }
+            log.info("{}: heap used: {} MB, off-heap used/reserved: {}/{} MB, GC during {} puts: {} collections, {} ms, "
+                            + "get: {} ns, getView: {} ns, checksum: {}",
+                    offHeap ? "off-heap" : "on-heap", heapUsed >> 20, cache.offHeapUsedBytes() >> 20, cache.offHeapReservedBytes() >> 20,
+                    OPERATIONS, gcCount, gcMillis, getNanos, viewNanos, checksum);
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += bean.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += bean.getCollectionTime();
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,58 @@
+package concurrentLRUCache;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 19:50
+ * A reusable zero-copy view of an off-heap value of {@link GenericConcurrentLRUCache}, see getView
+ *
+ * <p>
+ * 1. The view wraps the value where it lives in direct memory, nothing is copied or deserialized
+ * 2. The block may be freed and reused once the entry is replaced or evicted, so read what you need from buffer()
+ * and then call isValid(), if it returns false the bytes that were read may be torn and must be discarded
+ * <p>
+ * Not thread-safe, keep one view per thread
+ */
+public final class OffHeapValueView {
+
+    private final UnsafeBuffer header = new UnsafeBuffer();
+    private final UnsafeBuffer data = new UnsafeBuffer();
+    private long stamp = SlabAllocator.FREE;
+
+    /**
+     * @return false if the block no longer holds the value with the stamp
+     */
+    boolean wrap(long address, long stamp) {
+        header.wrap(address, SlabAllocator.HEADER_LENGTH);
+        if (header.getLongVolatile(SlabAllocator.STAMP_OFFSET) != stamp) {
+            return false;
+        }
+        // A length read from a reused block stays inside that block, every block keeps its size class
+        data.wrap(address + SlabAllocator.HEADER_LENGTH, header.getInt(SlabAllocator.LENGTH_OFFSET));
+        this.stamp = stamp;
+        return isValid();
+    }
+
+    public DirectBuffer buffer() {
+        return data;
+    }
+
+    public int length() {
+        return data.capacity();
+    }
+
+    /**
+     * @return true if the value has not been replaced or evicted since the view was wrapped, so the bytes read so far are intact
+     */
+    public boolean isValid() {
+        if (stamp == SlabAllocator.FREE) {
+            return false;
+        }
+        VarHandle.loadLoadFence();
+        return header.getLongVolatile(SlabAllocator.STAMP_OFFSET) == stamp;
+    }
+}
@@ -0,0 +1,30 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * The base class of the cache nodes that an {@link EvictionPolicy} orders
+ *
+ * <p>
+ * The links are intrusive like the timer links, so the policies allocate nothing per entry
+ */
+abstract class PolicyNode extends ExpirableNode {
+
+    // Guarded by the lock of the owning cache
+    PolicyNode prev;
+    PolicyNode next;
+
+    /**
+     * Set by the readers on a hit for CLOCK and SIEVE, cleared by the policy when the hand passes
+     */
+    volatile boolean visited;
+
+    /**
+     * Mark the node as visited without writing the cache line again if it is already marked
+     */
+    void markVisited() {
+        if (!visited) {
+            visited = true;
+        }
+    }
+}
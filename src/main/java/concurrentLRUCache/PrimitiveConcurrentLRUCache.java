@@ -0,0 +1,297 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 11:40
+ * The primitive specialized sibling of {@link ConcurrentLRUCache} for int keys and int values
+ *
+ * <p>
+ * 1. The entries live in parallel int arrays (keys, values, prev, next) preallocated for the capacity,
+ * the recency list is built from array indexes instead of Node objects, and a free list reuses the slots of evicted entries
+ * 2. The key lookup is an open addressing table (linear probing, backward shift deletion) that stores entry index + 1, 0 means empty
+ * 3. Nothing is allocated on get, put or evict: no boxed Integer, no Node, no map entry, and the lock is a CAS spin lock,
+ * which unlike ReentrantLock does not enqueue a node when it is contended
+ * 4. Heap usage per entry is 4 ints in the entry arrays plus 2 ints in the lookup table (load factor 0.5), 24 bytes in total
+ * <p>
+ * Functional:
+ * 1. get: return the value and move the entry to the frequent used position, or the missing value if the key is not exists
+ * 2. put: insert or update the entry, and evict the LRU entry if the cache is full
+ */
+@Slf4j
+public class PrimitiveConcurrentLRUCache {
+
+    private static final int NULL_INDEX = -1;
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private final int[] keys;
+    private final int[] values;
+    private final int[] prev;
+    private final int[] next;
+    private final int[] table;
+    private final int tableMask;
+    private final int capacity;
+    private final int missingValue;
+    private final AtomicBoolean lock = new AtomicBoolean();
+
+    // Most recently used entry
+    private int head = NULL_INDEX;
+    // Least recently used entry
+    private int tail = NULL_INDEX;
+    private int freeHead;
+    private int size;
+
+    public PrimitiveConcurrentLRUCache(int capacity) {
+        this(capacity, -1);
+    }
+
+    public PrimitiveConcurrentLRUCache(int capacity, int missingValue) {
+        if (capacity <= 0 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^29]: " + capacity);
+        }
+        this.capacity = capacity;
+        this.missingValue = missingValue;
+        keys = new int[capacity];
+        values = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        // Keep the load factor of the lookup table at most 0.5
+        table = new int[1 << -Integer.numberOfLeadingZeros(capacity * 2 - 1)];
+        tableMask = table.length - 1;
+
+        // Chain all the slots into the free list
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : NULL_INDEX;
+        }
+        Arrays.fill(prev, NULL_INDEX);
+        freeHead = 0;
+    }
+
+    /**
+     * @return the value of key, or the missing value (-1 by default) if the key is not exists
+     */
+    public int get(int key) {
+        lock();
+        try {
+            int index = indexOf(key);
+            if (index == NULL_INDEX) {
+                return missingValue;
+            }
+            moveToHead(index);
+            return values[index];
+        } finally {
+            unlock();
+        }
+    }
+
+    public void put(int key, int value) {
+        lock();
+        try {
+            int index = indexOf(key);
+            if (index != NULL_INDEX) {
+                values[index] = value;
+                moveToHead(index);
+                return;
+            }
+            // If cache is full, evict the LRU entry and reuse its slot
+            if (size == capacity) {
+                removeEntry(tail);
+            }
+            index = freeHead;
+            freeHead = next[index];
+            keys[index] = key;
+            values[index] = value;
+            insertIntoTable(index);
+            linkAtHead(index);
+            size++;
+        } finally {
+            unlock();
+        }
+    }
+
+    public boolean evict(int key) {
+        lock();
+        try {
+            int index = indexOf(key);
+            if (index == NULL_INDEX) {
+                return false;
+            }
+            removeEntry(index);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    public int size() {
+        lock();
+        try {
+            return size;
+        } finally {
+            unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int missingValue() {
+        return missingValue;
+    }
+
+    private void lock() {
+        int spins = 0;
+        while (!lock.compareAndSet(false, true)) {
+            // Test before retrying the CAS, so the waiting threads spin on their own copy of the cache line
+            while (lock.get()) {
+                if (++spins < SPINS_BEFORE_YIELD) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    private void unlock() {
+        lock.set(false);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int key) {
+        for (int slot = hash(key) & tableMask; ; slot = (slot + 1) & tableMask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return NULL_INDEX;
+            }
+            if (keys[entry - 1] == key) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void insertIntoTable(int index) {
+        int slot = hash(keys[index]) & tableMask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & tableMask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private void removeFromTable(int index) {
+        int slot = hash(keys[index]) & tableMask;
+        while (table[slot] != index + 1) {
+            slot = (slot + 1) & tableMask;
+        }
+        // Backward shift: move the following entries of the probe sequence into the hole, no tombstones needed
+        int hole = slot;
+        for (int curr = (hole + 1) & tableMask; table[curr] != 0; curr = (curr + 1) & tableMask) {
+            int home = hash(keys[table[curr] - 1]) & tableMask;
+            if (((curr - home) & tableMask) >= ((curr - hole) & tableMask)) {
+                table[hole] = table[curr];
+                hole = curr;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void removeEntry(int index) {
+        removeFromTable(index);
+        unlink(index);
+        // Put the slot back to the free list
+        next[index] = freeHead;
+        prev[index] = NULL_INDEX;
+        freeHead = index;
+        size--;
+    }
+
+    private void moveToHead(int index) {
+        if (index != head) {
+            unlink(index);
+            linkAtHead(index);
+        }
+    }
+
+    private void linkAtHead(int index) {
+        prev[index] = NULL_INDEX;
+        next[index] = head;
+        if (head != NULL_INDEX) {
+            prev[head] = index;
+        } else {
+            tail = index;
+        }
+        head = index;
+    }
+
+    private void unlink(int index) {
+        int p = prev[index];
+        int n = next[index];
+        if (p != NULL_INDEX) {
+            next[p] = n;
+        } else {
+            head = n;
+        }
+        if (n != NULL_INDEX) {
+            prev[n] = p;
+        } else {
+            tail = p;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PrimitiveConcurrentLRUCache{" +
+                "size=" + size() +
+                ", capacity=" + capacity +
+                '}';
+    }
+
+    public static void main(String[] args) {
+        PrimitiveConcurrentLRUCache cache = new PrimitiveConcurrentLRUCache(3);
+        cache.put(1, 10);
+        cache.put(2, 20);
+        cache.put(3, 30);
+        // 10, key 1 becomes the frequent used one
+        log.info("cache.get(1): {}", cache.get(1));
+        // Key 2 is the LRU entry and will be evicted
+        cache.put(4, 40);
+        // -1
+        log.info("cache.get(2): {}", cache.get(2));
+        // true
+        log.info("cache.evict(3): {}", cache.evict(3));
+        // 10, 40
+        log.info("cache.get(1): {}, cache.get(4): {}", cache.get(1), cache.get(4));
+
+        // Steady state get/put should not allocate at all
+        int capacity = 100_000;
+        PrimitiveConcurrentLRUCache largeCache = new PrimitiveConcurrentLRUCache(capacity);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int round = 0; round < 3; round++) {
+            long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            int ops = 10_000_000;
+            for (int i = 0; i < ops; i++) {
+                int key = random.nextInt(capacity * 2);
+                if (random.nextInt(10) < 8) {
+                    largeCache.get(key);
+                } else {
+                    largeCache.put(key, i);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info("round {}: {} ns/op, allocated {} bytes", round, elapsed / ops, threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore);
+        }
+    }
+}
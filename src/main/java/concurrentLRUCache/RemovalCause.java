@@ -0,0 +1,21 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 16:30
+ * Why an entry has been removed from the cache
+ */
+public enum RemovalCause {
+    /**
+     * Evicted by the capacity or the maximum weight
+     */
+    SIZE,
+    /**
+     * Its time to live has passed
+     */
+    EXPIRED,
+    /**
+     * Removed by evict(key)
+     */
+    EXPLICIT
+}
@@ -0,0 +1,292 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 10:12
+ * The lock-striped version of {@link ConcurrentLRUCache}
+ *
+ * <p>
+ * 1. Keys are hashed into N independent segments (N is a power of two), every segment owns its map, recency list and lock
+ * 2. The capacity is split across the segments, so each segment evicts its own LRU node once its share is full
+ * 3. A get moves the node to the frequent used position, which is a write to the recency list, so each segment guards
+ * both get and put with an exclusive ReentrantLock instead of a read-write lock
+ * 4. Threads working on keys of different segments never touch the same lock or list, so the throughput scales with the cores
+ * <p>
+ * Trade-off: the eviction order is LRU per segment rather than globally, which is close enough for a well spread hash
+ */
+@Slf4j
+public class SegmentedConcurrentLRUCache {
+
+    private static final int MISSING_VALUE = -1;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final int capacity;
+
+    public SegmentedConcurrentLRUCache(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public SegmentedConcurrentLRUCache(int capacity, int concurrencyLevel) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+        // Every segment should be able to hold at least one entry
+        int segmentCount = Integer.highestOneBit(Math.min(concurrencyLevel, capacity));
+        this.segments = new Segment[segmentCount];
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.capacity = capacity;
+
+        int share = capacity / segmentCount;
+        int remainder = capacity % segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(i < remainder ? share + 1 : share);
+        }
+    }
+
+    /**
+     * A stored -1 can not be told from a missing key, use {@link #getOrDefault(int, int)} or {@link #containsKey(int)} if -1 is a valid value
+     *
+     * @return the value of key, or -1 if the key is not exists
+     */
+    public int get(int key) {
+        return segmentFor(key).get(key, MISSING_VALUE);
+    }
+
+    /**
+     * @return the value of key, or defaultValue if the key is not exists
+     */
+    public int getOrDefault(int key, int defaultValue) {
+        return segmentFor(key).get(key, defaultValue);
+    }
+
+    /**
+     * Does not count as an access, the recency of the key is left as it is
+     */
+    public boolean containsKey(int key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    public void put(int key, int value) {
+        segmentFor(key).put(key, value);
+    }
+
+    public boolean evict(int key) {
+        return segmentFor(key).evict(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    private Segment segmentFor(int key) {
+        // Spread the key by the golden ratio so that sequential keys do not pile up in one segment
+        int hash = key * 0x9E3779B9;
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedConcurrentLRUCache{" +
+                "segments=" + segments.length +
+                ", size=" + size() +
+                ", capacity=" + capacity +
+                '}';
+    }
+
+    private static class Segment {
+        private final Map<Integer, Node> cache;
+        private final ReentrantLock lock;
+        private final Node head;
+        private final Node tail;
+        private final int capacity;
+
+        Segment(int capacity) {
+            this.cache = new HashMap<>(capacity * 4 / 3 + 1);
+            this.lock = new ReentrantLock();
+            this.capacity = capacity;
+            head = new Node(0, 0);
+            tail = new Node(0, 0);
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        int get(int key, int defaultValue) {
+            lock.lock();
+            try {
+                Node curr = cache.get(key);
+                if (curr == null) {
+                    return defaultValue;
+                }
+                removeNode(curr);
+                addFirst(curr);
+                return curr.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean containsKey(int key) {
+            lock.lock();
+            try {
+                return cache.containsKey(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(int key, int value) {
+            lock.lock();
+            try {
+                Node curr = cache.get(key);
+                if (curr != null) {
+                    curr.value = value;
+                    removeNode(curr);
+                } else {
+                    // If segment is full, evict the LRU node
+                    if (cache.size() == capacity) {
+                        Node lruNode = tail.prev;
+                        removeNode(lruNode);
+                        cache.remove(lruNode.key);
+                    }
+                    curr = new Node(key, value);
+                    cache.put(key, curr);
+                }
+                addFirst(curr);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean evict(int key) {
+            lock.lock();
+            try {
+                Node remove = cache.remove(key);
+                if (remove == null) {
+                    return false;
+                }
+                removeNode(remove);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return cache.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void addFirst(Node node) {
+            node.next = head.next;
+            node.prev = head;
+            head.next.prev = node;
+            head.next = node;
+        }
+
+        private void removeNode(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+    }
+
+    private static class Node {
+        private final int key;
+        private int value;
+        private Node prev;
+        private Node next;
+
+        Node(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int capacity = 100_000;
+        int keySpace = capacity * 2;
+        int opsPerThread = 1_000_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        // 80% get and 20% put, compare the single lock cache with the segmented one
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            ConcurrentLRUCache single = new ConcurrentLRUCache(capacity);
+            long singleOps = run(threads, opsPerThread, keySpace, single::get, single::put);
+
+            SegmentedConcurrentLRUCache segmented = new SegmentedConcurrentLRUCache(capacity);
+            long segmentedOps = run(threads, opsPerThread, keySpace, segmented::get, segmented::put);
+
+            log.info("threads: {}, single lock: {} ops/s, segmented({}): {} ops/s",
+                    threads, singleOps, segmented.segmentCount(), segmentedOps);
+        }
+    }
+
+    private static long run(int threads, int opsPerThread, int keySpace, IntReader reader, IntWriter writer) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < opsPerThread; i++) {
+                    int key = random.nextInt(keySpace);
+                    if (random.nextInt(10) < 8) {
+                        reader.read(key);
+                    } else {
+                        writer.write(key, i);
+                    }
+                }
+                done.countDown();
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executorService.shutdown();
+        return (long) threads * opsPerThread * 1_000_000_000L / elapsed;
+    }
+
+    @FunctionalInterface
+    private interface IntReader {
+        void read(int key);
+    }
+
+    @FunctionalInterface
+    private interface IntWriter {
+        void write(int key, int value);
+    }
+}
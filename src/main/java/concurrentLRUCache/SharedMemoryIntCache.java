@@ -0,0 +1,497 @@
+package concurrentLRUCache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 21:30
+ * An int to int cache whose table lives in a memory-mapped file, so all the processes of a host that open the same file share one copy
+ *
+ * <p>
+ * 1. The table is set associative: a key can only live in one set of WAYS slots, chosen by its hash, and a full set evicts its
+ * least recently used slot, tracked by a millisecond access time per slot that a reader updates at most once per millisecond
+ * 2. The readers take no lock at all, every slot is protected by a seqlock: the writer makes the sequence odd, writes the slot
+ * and makes it even again, a reader retries if the sequence was odd or has changed while it was reading the slot
+ * 3. The writers of a set are serialized by a CAS lock word in the set header that holds the owner token of the process.
+ * Every process claims one of MAX_OWNERS owner slots by holding an exclusive FileLock on one byte of it for as long as it is open,
+ * and writes a fresh random token for the slot into the owner table. The kernel releases the FileLock when the process dies,
+ * so a set lock whose owner slot can be locked, or whose token is no longer the one in the table, is taken over
+ * and the slots it was writing are dropped. Unlike a pid, this also holds for the processes of other PID namespaces
+ * 4. The file is created and initialized under a file lock of its header, a process that opens an existing file finds the cache already warm
+ * <p>
+ * All the processes must use the same capacity, the geometry is stored in the header and checked when the file is opened.
+ * Memory-mapped atomics are only coherent between the processes of one host, the file must not be on a network file system
+ * <p>
+ * Functional:
+ * 1. get: return the value, or the missing value (-1 by default) if the key is not exists
+ * 2. put: insert or update the entry, and evict the LRU entry of the set if the set is full
+ */
+@Slf4j
+public class SharedMemoryIntCache implements AutoCloseable {
+
+    private static final int MAGIC = 0x53484D43;
+    private static final int VERSION = 2;
+    private static final int WAYS = 8;
+    private static final int HEADER_LENGTH = 64;
+    private static final int SETS_OFFSET = 8;
+    private static final int WAYS_OFFSET = 12;
+
+    // Owner table: the current token of every owner slot, the sets follow it
+    private static final int MAX_OWNERS = 256;
+    private static final int OWNER_TABLE_OFFSET = HEADER_LENGTH;
+    private static final int SETS_START = OWNER_TABLE_OFFSET + MAX_OWNERS * Long.BYTES;
+    // The owner slots are locked past the end of the file, the locks never overlap the data
+    private static final long OWNER_LOCK_BASE = 1L << 62;
+    private static final int OWNER_SHIFT = 48;
+
+    // Set: lock word on its own cache line, then the slots
+    private static final int SET_HEADER_LENGTH = 64;
+    private static final int LOCK_OFFSET = 0;
+    private static final int SLOT_LENGTH = 32;
+    private static final int SET_LENGTH = SET_HEADER_LENGTH + WAYS * SLOT_LENGTH;
+
+    // Slot: sequence, key, value, state, access time
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int KEY_OFFSET = 8;
+    private static final int VALUE_OFFSET = 12;
+    private static final int STATE_OFFSET = 16;
+    private static final int ACCESS_OFFSET = 24;
+    private static final int EMPTY = 0;
+    private static final int OCCUPIED = 1;
+
+    private static final int READ_RETRIES = 1 << 16;
+    private static final int SPINS_BEFORE_OWNER_CHECK = 1 << 16;
+
+    /**
+     * The open cache files of this process by their real path. Closing any channel of a file drops all the file locks
+     * the process holds on it, so the caches of one file share one channel that is closed with the last of them
+     */
+    private static final Map<Path, OpenFile> OPEN_FILES = new HashMap<>();
+
+    private final OpenFile file;
+    private final MappedByteBuffer mapped;
+    private final UnsafeBuffer buffer;
+    private final int sets;
+    private final int missingValue;
+    private final FileLock ownerLock;
+    private final long token;
+
+    private SharedMemoryIntCache(OpenFile file, MappedByteBuffer mapped, int sets, int missingValue) throws IOException {
+        this.file = file;
+        this.mapped = mapped;
+        this.buffer = new UnsafeBuffer(mapped);
+        this.sets = sets;
+        this.missingValue = missingValue;
+        int owner = 0;
+        FileLock claimed = null;
+        while (claimed == null && ++owner < MAX_OWNERS) {
+            claimed = tryLockOwner(file.channel, owner);
+        }
+        if (claimed == null) {
+            throw new IllegalStateException("more than " + (MAX_OWNERS - 1) + " processes have opened the cache file");
+        }
+        this.ownerLock = claimed;
+        // A fresh token, so the set locks left behind by an earlier holder of the slot are seen as dead
+        this.token = ((long) owner << OWNER_SHIFT) | (ThreadLocalRandom.current().nextLong() >>> (Long.SIZE - OWNER_SHIFT)) | 1;
+        buffer.putLongVolatile(ownerTableOffset(owner), token);
+    }
+
+    public static SharedMemoryIntCache open(Path path, int capacity) throws IOException {
+        return open(path, capacity, -1);
+    }
+
+    /**
+     * Open the shared cache file, creating it if this is the first process
+     *
+     * @param capacity rounded up to a power of two sets of 8 slots
+     */
+    public static SharedMemoryIntCache open(Path path, int capacity, int missingValue) throws IOException {
+        if (capacity <= 0 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^24]: " + capacity);
+        }
+        int sets = 1 << -Integer.numberOfLeadingZeros(Math.max(1, (capacity + WAYS - 1) / WAYS) - 1);
+        long length = SETS_START + (long) sets * SET_LENGTH;
+        synchronized (OPEN_FILES) {
+            OpenFile file = OpenFile.acquire(path);
+            try {
+                MappedByteBuffer mapped = map(file.channel, path, length, sets, capacity);
+                try {
+                    return new SharedMemoryIntCache(file, mapped, sets, missingValue);
+                } catch (IOException | RuntimeException e) {
+                    IoUtil.unmap(mapped);
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                file.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Map the file, creating and initializing it if it is empty, under a lock of the header against the other processes
+     */
+    private static MappedByteBuffer map(FileChannel channel, Path path, long length, int sets, int capacity) throws IOException {
+        FileLock headerLock = channel.lock(0, HEADER_LENGTH, false);
+        try {
+            boolean created = channel.size() == 0;
+            if (created) {
+                // Grow the file to its full length, the new pages read as zero: every slot is empty and every set unlocked
+                channel.write(ByteBuffer.allocate(1), length - 1);
+            } else if (channel.size() != length) {
+                throw new IllegalStateException("the cache file has " + channel.size() + " bytes, expected " + length + " for capacity " + capacity);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            UnsafeBuffer header = new UnsafeBuffer(mapped);
+            if (created) {
+                header.putInt(SETS_OFFSET, sets);
+                header.putInt(WAYS_OFFSET, WAYS);
+                header.putInt(4, VERSION);
+                header.putIntVolatile(0, MAGIC);
+            } else if (header.getIntVolatile(0) != MAGIC || header.getInt(4) != VERSION
+                    || header.getInt(SETS_OFFSET) != sets || header.getInt(WAYS_OFFSET) != WAYS) {
+                IoUtil.unmap(mapped);
+                throw new IllegalStateException("the cache file was created with another version or capacity: " + path);
+            }
+            return mapped;
+        } finally {
+            headerLock.release();
+        }
+    }
+
+    /**
+     * @return the value of key, or the missing value (-1 by default) if the key is not exists
+     */
+    public int get(int key) {
+        int set = setOffset(key);
+        for (int way = 0; way < WAYS; way++) {
+            int slot = set + SET_HEADER_LENGTH + way * SLOT_LENGTH;
+            for (int retry = 0; retry < READ_RETRIES; retry++) {
+                long sequence = buffer.getLongVolatile(slot + SEQUENCE_OFFSET);
+                if ((sequence & 1) != 0) {
+                    // A writer is in the middle of the slot
+                    Thread.onSpinWait();
+                    continue;
+                }
+                int state = buffer.getInt(slot + STATE_OFFSET);
+                int slotKey = buffer.getInt(slot + KEY_OFFSET);
+                int value = buffer.getInt(slot + VALUE_OFFSET);
+                VarHandle.loadLoadFence();
+                if (buffer.getLongVolatile(slot + SEQUENCE_OFFSET) != sequence) {
+                    continue;
+                }
+                if (state == OCCUPIED && slotKey == key) {
+                    touch(slot);
+                    return value;
+                }
+                break;
+            }
+        }
+        return missingValue;
+    }
+
+    public void put(int key, int value) {
+        int set = setOffset(key);
+        lock(set);
+        try {
+            int target = -1;
+            long oldestAccess = Long.MAX_VALUE;
+            for (int way = 0; way < WAYS; way++) {
+                int slot = set + SET_HEADER_LENGTH + way * SLOT_LENGTH;
+                int state = buffer.getInt(slot + STATE_OFFSET);
+                if (state == OCCUPIED && buffer.getInt(slot + KEY_OFFSET) == key) {
+                    target = slot;
+                    break;
+                }
+                // An empty slot is older than any occupied one
+                long access = state == EMPTY ? Long.MIN_VALUE : buffer.getLongVolatile(slot + ACCESS_OFFSET);
+                if (access < oldestAccess) {
+                    oldestAccess = access;
+                    target = slot;
+                }
+            }
+            writeSlot(target, OCCUPIED, key, value);
+        } finally {
+            unlock(set);
+        }
+    }
+
+    public boolean evict(int key) {
+        int set = setOffset(key);
+        lock(set);
+        try {
+            for (int way = 0; way < WAYS; way++) {
+                int slot = set + SET_HEADER_LENGTH + way * SLOT_LENGTH;
+                if (buffer.getInt(slot + STATE_OFFSET) == OCCUPIED && buffer.getInt(slot + KEY_OFFSET) == key) {
+                    writeSlot(slot, EMPTY, 0, 0);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            unlock(set);
+        }
+    }
+
+    /**
+     * The number of entries of all the processes, counted by scanning the whole table
+     */
+    public int size() {
+        int size = 0;
+        for (int set = 0; set < sets; set++) {
+            for (int way = 0; way < WAYS; way++) {
+                int slot = SETS_START + set * SET_LENGTH + SET_HEADER_LENGTH + way * SLOT_LENGTH;
+                if (buffer.getIntVolatile(slot + STATE_OFFSET) == OCCUPIED) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    public int capacity() {
+        return sets * WAYS;
+    }
+
+    public int missingValue() {
+        return missingValue;
+    }
+
+    /**
+     * Unmap the file and give up the owner slot, the entries stay in it for the other processes and the next start
+     */
+    @Override
+    public void close() {
+        IoUtil.unmap(mapped);
+        synchronized (OPEN_FILES) {
+            try {
+                ownerLock.release();
+                file.release();
+            } catch (IOException e) {
+                log.warn("Error in closing the cache file: {}", e.getMessage());
+            }
+        }
+    }
+
+    private int setOffset(int key) {
+        int h = key * 0x9E3779B9;
+        h ^= h >>> 16;
+        return SETS_START + (h & (sets - 1)) * SET_LENGTH;
+    }
+
+    /**
+     * Record the access for the LRU choice of the writers, at most one write per slot and millisecond
+     */
+    private void touch(int slot) {
+        long now = System.currentTimeMillis();
+        if (buffer.getLong(slot + ACCESS_OFFSET) != now) {
+            buffer.putLongOrdered(slot + ACCESS_OFFSET, now);
+        }
+    }
+
+    /**
+     * Must be called with the set lock held
+     */
+    private void writeSlot(int slot, int state, int key, int value) {
+        long sequence = buffer.getLongVolatile(slot + SEQUENCE_OFFSET);
+        buffer.putLongVolatile(slot + SEQUENCE_OFFSET, sequence + 1);
+        // The slot must not be written before the readers can see the odd sequence
+        VarHandle.storeStoreFence();
+        buffer.putInt(slot + KEY_OFFSET, key);
+        buffer.putInt(slot + VALUE_OFFSET, value);
+        buffer.putInt(slot + STATE_OFFSET, state);
+        buffer.putLong(slot + ACCESS_OFFSET, System.currentTimeMillis());
+        buffer.putLongOrdered(slot + SEQUENCE_OFFSET, sequence + 2);
+    }
+
+    private void lock(int set) {
+        int spins = 0;
+        while (!buffer.compareAndSetLong(set + LOCK_OFFSET, 0, token)) {
+            if (++spins < SPINS_BEFORE_OWNER_CHECK) {
+                Thread.onSpinWait();
+                continue;
+            }
+            spins = 0;
+            long owner = buffer.getLongVolatile(set + LOCK_OFFSET);
+            if (owner != 0 && !isAlive(owner) && buffer.compareAndSetLong(set + LOCK_OFFSET, owner, token)) {
+                log.warn("Took over the lock of set {} from the dead owner {}", (set - SETS_START) / SET_LENGTH, owner >>> OWNER_SHIFT);
+                repair(set);
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void unlock(int set) {
+        buffer.putLongOrdered(set + LOCK_OFFSET, 0);
+    }
+
+    /**
+     * The owner of a set lock is alive while its token is still the one of its slot and another holder keeps the slot locked
+     */
+    private boolean isAlive(long owner) {
+        if (owner == token) {
+            return true;
+        }
+        int slot = (int) (owner >>> OWNER_SHIFT);
+        if (slot <= 0 || slot >= MAX_OWNERS || buffer.getLongVolatile(ownerTableOffset(slot)) != owner) {
+            return false;
+        }
+        try {
+            FileLock probe = tryLockOwner(file.channel, slot);
+            if (probe == null) {
+                return true;
+            }
+            probe.release();
+            return false;
+        } catch (IOException e) {
+            log.warn("Error in checking the owner {}: {}", slot, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * @return the lock of the owner slot, or null if another process or another cache of this process holds it
+     */
+    private static FileLock tryLockOwner(FileChannel channel, int slot) throws IOException {
+        try {
+            return channel.tryLock(OWNER_LOCK_BASE + slot, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static int ownerTableOffset(int slot) {
+        return OWNER_TABLE_OFFSET + slot * Long.BYTES;
+    }
+
+    /**
+     * The channel of a cache file shared by the caches of this process, guarded by OPEN_FILES
+     */
+    private static final class OpenFile {
+        private final Path key;
+        private final FileChannel channel;
+        private int references;
+
+        private OpenFile(Path key, FileChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        static OpenFile acquire(Path path) throws IOException {
+            try {
+                // Creates the file without opening and closing a channel of it
+                Files.createFile(path);
+            } catch (FileAlreadyExistsException ignored) {
+                // Opened by another cache or process before
+            }
+            Path key = path.toRealPath();
+            OpenFile file = OPEN_FILES.get(key);
+            if (file == null) {
+                file = new OpenFile(key, FileChannel.open(key, StandardOpenOption.READ, StandardOpenOption.WRITE));
+                OPEN_FILES.put(key, file);
+            }
+            file.references++;
+            return file;
+        }
+
+        void release() throws IOException {
+            if (--references == 0) {
+                OPEN_FILES.remove(key);
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Drop the slots the dead owner left in the middle of a write, their contents may be torn
+     */
+    private void repair(int set) {
+        for (int way = 0; way < WAYS; way++) {
+            int slot = set + SET_HEADER_LENGTH + way * SLOT_LENGTH;
+            long sequence = buffer.getLongVolatile(slot + SEQUENCE_OFFSET);
+            if ((sequence & 1) != 0) {
+                buffer.putInt(slot + STATE_OFFSET, EMPTY);
+                buffer.putLongOrdered(slot + SEQUENCE_OFFSET, sequence + 1);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryIntCache{" +
+                "size=" + size() +
+                ", capacity=" + capacity() +
+                '}';
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1) {
+            // Started by the demo below as the second process
+            try (SharedMemoryIntCache cache = SharedMemoryIntCache.open(Path.of(args[0]), 16_384)) {
+                int hits = 0;
+                for (int key = 0; key < 1_000; key++) {
+                    if (cache.get(key) == key * 10) {
+                        hits++;
+                    }
+                }
+                // 1000, the cache was already warm when this process started
+                log.info("child process {}: hits {} of 1000", ProcessHandle.current().pid(), hits);
+                for (int key = 1_000; key < 2_000; key++) {
+                    cache.put(key, key * 10);
+                }
+            }
+            return;
+        }
+
+        Path path = Files.createTempFile("shared-int-cache", ".bin");
+        Files.delete(path);
+        try (SharedMemoryIntCache cache = SharedMemoryIntCache.open(path, 16_384)) {
+            for (int key = 0; key < 1_000; key++) {
+                cache.put(key, key * 10);
+            }
+            Process child = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                    "-cp", System.getProperty("java.class.path"), SharedMemoryIntCache.class.getName(), path.toString())
+                    .inheritIO()
+                    .start();
+            if (!child.waitFor(30, TimeUnit.SECONDS)) {
+                child.destroy();
+            }
+            int hits = 0;
+            for (int key = 1_000; key < 2_000; key++) {
+                if (cache.get(key) == key * 10) {
+                    hits++;
+                }
+            }
+            // 1000, the entries the child put are visible to this process
+            log.info("parent process {}: hits {} of the 1000 keys put by the child, size: {}", ProcessHandle.current().pid(), hits, cache.size());
+
+            long start = System.nanoTime();
+            int ops = 10_000_000;
+            for (int i = 0; i < ops; i++) {
+                cache.get(i & 1_023);
+            }
+            log.info("get: {} ns/op", (System.nanoTime() - start) / ops);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
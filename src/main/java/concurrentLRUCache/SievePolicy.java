@@ -0,0 +1,61 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 18:10
+ * SIEVE
+ *
+ * <p>
+ * 1. New nodes are always inserted at the newest end of a FIFO list, and a hit only sets the visited bit
+ * 2. The hand moves from the oldest end towards the newest one, clearing the visited bits, and stops at the first unvisited node,
+ * after the victim is removed the hand stays at its position and wraps around to the oldest end when it passes the newest one
+ * 3. Unlike CLOCK the survivors are never moved, so the new one-hit nodes stay close to the hand and are sifted out quickly
+ */
+final class SievePolicy<N extends PolicyNode> extends LinkedPolicy<N> {
+
+    private PolicyNode hand;
+
+    @Override
+    public void onInsert(N node) {
+        node.visited = false;
+        linkLast(node);
+    }
+
+    @Override
+    public void onAccess(N node) {
+        node.markVisited();
+    }
+
+    @Override
+    public void onRemove(N node) {
+        if (hand == node) {
+            hand = node.next == sentinel ? null : node.next;
+        }
+        unlink(node);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public N victim() {
+        if (isEmpty()) {
+            return null;
+        }
+        PolicyNode node = hand != null ? hand : sentinel.next;
+        while (true) {
+            if (node == sentinel) {
+                node = sentinel.next;
+            } else if (node.visited) {
+                node.visited = false;
+                node = node.next;
+            } else {
+                hand = node;
+                return (N) node;
+            }
+        }
+    }
+
+    @Override
+    public boolean reordersOnAccess() {
+        return false;
+    }
+}
@@ -0,0 +1,148 @@
+package concurrentLRUCache;
+
+import org.agrona.BufferUtil;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 19:50
+ * A slab allocator over direct memory for the off-heap values of {@link GenericConcurrentLRUCache}
+ *
+ * <p>
+ * 1. The memory is reserved in slabs of slabSize bytes, every slab is carved into blocks of one size class.
+ * There are 4 size classes per power of two (32, 40, 48, 56, 64, 80, ... up to slabSize), so a block wastes at most a fifth of its size
+ * 2. A freed block is pushed to the free list of its size class and reused by the next allocation of that class,
+ * the free list is intrusive, the next free address is kept in the freed block itself, like the free slots of PrimitiveConcurrentLRUCache
+ * 3. Every block starts with a header: stamp (long), length of the data (int), size class (int).
+ * A live block holds a unique stamp, a free block holds FREE, so a reader can check that the block it wrapped still holds its value
+ * <p>
+ * Not thread-safe, the cache only allocates and frees while holding the eviction lock, the readers only go through OffHeapValueView
+ */
+final class SlabAllocator {
+
+    static final int HEADER_LENGTH = 16;
+    static final int STAMP_OFFSET = 0;
+    static final int LENGTH_OFFSET = 8;
+    static final long FREE = 0;
+
+    private static final int CLASS_OFFSET = 12;
+    private static final int MIN_BLOCK_SHIFT = 5;
+    private static final int SLAB_ALIGNMENT = 64;
+
+    private final int slabSize;
+    // Keep the slabs reachable, the direct memory is released when its ByteBuffer is collected
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final long[] freeHeads;
+    private final long[] bumpAddresses;
+    private final long[] bumpLimits;
+    private final UnsafeBuffer block = new UnsafeBuffer();
+    private long nextStamp = FREE + 1;
+    private long usedBytes;
+
+    SlabAllocator(int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < 1 << MIN_BLOCK_SHIFT) {
+            throw new IllegalArgumentException("slabSize must be a power of two of at least 32: " + slabSize);
+        }
+        this.slabSize = slabSize;
+        int classCount = sizeClassOf(slabSize - HEADER_LENGTH) + 1;
+        freeHeads = new long[classCount];
+        bumpAddresses = new long[classCount];
+        bumpLimits = new long[classCount];
+    }
+
+    /**
+     * @return the address of a block with room for length bytes of data, it holds no stamp until it is published
+     */
+    long allocate(int length) {
+        if (length < 0 || length > slabSize - HEADER_LENGTH) {
+            throw new IllegalArgumentException("value must be at most " + (slabSize - HEADER_LENGTH) + " bytes: " + length);
+        }
+        int sizeClass = sizeClassOf(length);
+        long address = freeHeads[sizeClass];
+        if (address != 0) {
+            block.wrap(address, HEADER_LENGTH + Long.BYTES);
+            freeHeads[sizeClass] = block.getLong(HEADER_LENGTH);
+        } else {
+            // The tail of a slab that is too short for another block is left unused
+            if (bumpAddresses[sizeClass] + blockSizeOf(sizeClass) > bumpLimits[sizeClass]) {
+                ByteBuffer slab = BufferUtil.allocateDirectAligned(slabSize, SLAB_ALIGNMENT);
+                slabs.add(slab);
+                bumpAddresses[sizeClass] = BufferUtil.address(slab);
+                bumpLimits[sizeClass] = bumpAddresses[sizeClass] + slabSize;
+            }
+            address = bumpAddresses[sizeClass];
+            bumpAddresses[sizeClass] += blockSizeOf(sizeClass);
+            block.wrap(address, HEADER_LENGTH);
+            block.putLongVolatile(STAMP_OFFSET, FREE);
+        }
+        block.putInt(LENGTH_OFFSET, length);
+        block.putInt(CLASS_OFFSET, sizeClass);
+        usedBytes += blockSizeOf(sizeClass);
+        return address;
+    }
+
+    /**
+     * The data of an allocated block, to be filled in before the block is published
+     */
+    MutableDirectBuffer data(long address) {
+        block.wrap(address, HEADER_LENGTH);
+        int length = block.getInt(LENGTH_OFFSET);
+        block.wrap(address + HEADER_LENGTH, length);
+        return block;
+    }
+
+    /**
+     * Give the block a new unique stamp, the data written before becomes visible to the readers that see the stamp
+     */
+    long publish(long address) {
+        long stamp = nextStamp++;
+        block.wrap(address, HEADER_LENGTH);
+        block.putLongOrdered(STAMP_OFFSET, stamp);
+        return stamp;
+    }
+
+    void free(long address) {
+        block.wrap(address, HEADER_LENGTH + Long.BYTES);
+        // Invalidate the readers before the block is rewritten by its next owner
+        block.putLongVolatile(STAMP_OFFSET, FREE);
+        VarHandle.storeStoreFence();
+        int sizeClass = block.getInt(CLASS_OFFSET);
+        block.putLong(HEADER_LENGTH, freeHeads[sizeClass]);
+        freeHeads[sizeClass] = address;
+        usedBytes -= blockSizeOf(sizeClass);
+    }
+
+    /**
+     * The bytes of the blocks in use, including their headers and the rounding up to the size class
+     */
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    long reservedBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    private static int sizeClassOf(int length) {
+        int blockSize = HEADER_LENGTH + length;
+        if (blockSize <= 1 << MIN_BLOCK_SHIFT) {
+            return 0;
+        }
+        // 2^shift < blockSize <= 2^(shift + 1), split into 4 steps of 2^(shift - 2)
+        int shift = 31 - Integer.numberOfLeadingZeros(blockSize - 1);
+        int step = 1 << (shift - 2);
+        int quarter = (blockSize - (1 << shift) + step - 1) / step;
+        return ((shift - MIN_BLOCK_SHIFT) << 2) + quarter;
+    }
+
+    private static int blockSizeOf(int sizeClass) {
+        int shift = MIN_BLOCK_SHIFT + (sizeClass >> 2);
+        return (4 + (sizeClass & 3)) << (shift - 2);
+    }
+}
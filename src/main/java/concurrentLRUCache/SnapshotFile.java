@@ -0,0 +1,139 @@
+package concurrentLRUCache;
+
+import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 19:05
+ * The binary snapshot file of the caches, written and read through a MappedByteBuffer
+ *
+ * <p>
+ * Layout, little endian:
+ * 1. Header: magic (int), version (int), kind (int), entry count (int), created at in epoch millis (long)
+ * 2. Entries in eviction order, the entry that would be evicted first comes first, so replaying them in order restores the recency
+ * 3. Every entry starts with its deadline in epoch millis (long, 0 means no write deadline) and its expire-after-access
+ * time to live in nanos (long, 0 means none), the nanoTime based expiration times do not survive a restart
+ * <p>
+ * The file is written to a temporary file next to the target and then moved over it, so a crash never leaves a torn snapshot
+ */
+final class SnapshotFile {
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int KIND_INT = 1;
+    static final int KIND_GENERIC = 2;
+    static final int HEADER_LENGTH = 24;
+    static final int EXPIRATION_LENGTH = 2 * Long.BYTES;
+
+    private static final int MAGIC = 0x4C525553;
+    private static final int VERSION = 1;
+    private static final int COUNT_OFFSET = 12;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * @param length  the exact number of bytes of the entries
+     * @param entries writes the entries starting at HEADER_LENGTH
+     */
+    static void write(Path path, int kind, int count, long length, Consumer<MutableDirectBuffer> entries) throws IOException {
+        long fileLength = HEADER_LENGTH + length;
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IOException("snapshot is larger than 2GB: " + fileLength);
+        }
+        Path absolute = path.toAbsolutePath();
+        // mapNewFile creates the file itself, the random suffix keeps concurrent snapshots of the same path apart
+        Path temp = absolute.resolveSibling(absolute.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            MappedByteBuffer mapped = IoUtil.mapNewFile(temp.toFile(), fileLength, false);
+            try {
+                UnsafeBuffer buffer = new UnsafeBuffer(mapped);
+                buffer.putInt(0, MAGIC, ORDER);
+                buffer.putInt(4, VERSION, ORDER);
+                buffer.putInt(8, kind, ORDER);
+                buffer.putInt(COUNT_OFFSET, count, ORDER);
+                buffer.putLong(16, System.currentTimeMillis(), ORDER);
+                entries.accept(buffer);
+                mapped.force();
+            } finally {
+                IoUtil.unmap(mapped);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param minEntryLength the fewest bytes an entry takes, bounds the entry count of the header by the file length
+     * @param entries        reads the entries starting at HEADER_LENGTH, gets the entry count
+     */
+    static <R> R read(Path path, int kind, int minEntryLength, Function<DirectBuffer, R> entries) throws IOException {
+        MappedByteBuffer mapped = IoUtil.mapExistingFile(path.toFile(), FileChannel.MapMode.READ_ONLY, "snapshot");
+        try {
+            UnsafeBuffer buffer = new UnsafeBuffer(mapped);
+            if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0, ORDER) != MAGIC) {
+                throw new IOException("not a cache snapshot: " + path);
+            }
+            if (buffer.getInt(4, ORDER) != VERSION || buffer.getInt(8, ORDER) != kind) {
+                throw new IOException("unsupported snapshot version or kind: " + path);
+            }
+            // Checked before the readers size anything by it, a corrupt count must not allocate gigabytes
+            int count = count(buffer);
+            if (count < 0 || count > (buffer.capacity() - HEADER_LENGTH) / minEntryLength) {
+                throw new IOException("corrupt snapshot, " + count + " entries do not fit in " + buffer.capacity() + " bytes: " + path);
+            }
+            return entries.apply(buffer);
+        } finally {
+            IoUtil.unmap(mapped);
+        }
+    }
+
+    /**
+     * @return the entry count, within the file length once {@link #read(Path, int, int, Function)} hands out the buffer
+     */
+    static int count(DirectBuffer buffer) {
+        return buffer.getInt(COUNT_OFFSET, ORDER);
+    }
+
+    /**
+     * Write the expiration of the node, converting its remaining nanoTime based lifetime into a wall clock deadline
+     */
+    static void putExpiration(MutableDirectBuffer buffer, int offset, long expiresAt, long accessTtlNanos, long nowNanos, long nowMillis) {
+        long deadlineMillis = 0;
+        if (accessTtlNanos == 0 && expiresAt != ExpirableNode.NEVER) {
+            deadlineMillis = nowMillis + Math.max(1, TimeUnit.NANOSECONDS.toMillis(expiresAt - nowNanos));
+        }
+        buffer.putLong(offset, deadlineMillis, ORDER);
+        buffer.putLong(offset + Long.BYTES, accessTtlNanos, ORDER);
+    }
+
+    /**
+     * @return the remaining write time to live in nanos, 0 if there is no deadline, or -1 if the entry has already expired
+     */
+    static long remainingNanos(DirectBuffer buffer, int offset, long nowMillis) {
+        long deadlineMillis = buffer.getLong(offset, ORDER);
+        if (deadlineMillis == 0) {
+            return 0;
+        }
+        return deadlineMillis > nowMillis ? TimeUnit.MILLISECONDS.toNanos(deadlineMillis - nowMillis) : -1;
+    }
+
+    static long accessTtlNanos(DirectBuffer buffer, int offset) {
+        return buffer.getLong(offset + Long.BYTES, ORDER);
+    }
+}
@@ -0,0 +1,86 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 16:30
+ * Records the statistics of a cache
+ *
+ * <p>
+ * The cache calls these methods on every operation, so the disabled counter is a no-op singleton that the JIT can inline away,
+ * and the latency is only timed when sampleStart() returns a non-zero start time
+ */
+public interface StatsCounter {
+
+    void recordHit();
+
+    void recordMiss();
+
+    void recordPut();
+
+    void recordEviction(RemovalCause cause);
+
+    void recordLoadSuccess(long loadNanos);
+
+    void recordLoadFailure(long loadNanos);
+
+    /**
+     * @return the System.nanoTime() to time the current operation from, or 0 if this operation is not sampled
+     */
+    long sampleStart();
+
+    void recordGetLatency(long nanos);
+
+    void recordPutLatency(long nanos);
+
+    CacheStats snapshot();
+
+    static StatsCounter disabled() {
+        return DisabledStatsCounter.INSTANCE;
+    }
+
+    enum DisabledStatsCounter implements StatsCounter {
+        INSTANCE;
+
+        @Override
+        public void recordHit() {
+        }
+
+        @Override
+        public void recordMiss() {
+        }
+
+        @Override
+        public void recordPut() {
+        }
+
+        @Override
+        public void recordEviction(RemovalCause cause) {
+        }
+
+        @Override
+        public void recordLoadSuccess(long loadNanos) {
+        }
+
+        @Override
+        public void recordLoadFailure(long loadNanos) {
+        }
+
+        @Override
+        public long sampleStart() {
+            return 0;
+        }
+
+        @Override
+        public void recordGetLatency(long nanos) {
+        }
+
+        @Override
+        public void recordPutLatency(long nanos) {
+        }
+
+        @Override
+        public CacheStats snapshot() {
+            return CacheStats.empty();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package concurrentLRUCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 11:05
+ * Striped, lossy ring buffers for recording the reads of a cache
+ *
+ * <p>
+ * 1. Every reader thread is mapped to one stripe by its thread id, so the readers of different stripes never contend
+ * 2. A stripe is a bounded ring buffer with a CAS on the write counter, when it is full or the CAS fails the element is just dropped,
+ * losing a few access records only makes the recency order a little less exact, and a reader is never blocked
+ * 3. Only one thread drains the buffers at a time (the caller must hold the eviction lock), so the read counter needs no CAS
+ */
+final class StripedReadBuffer<E> {
+
+    static final int SUCCESS = 0;
+    static final int FULL = 1;
+    static final int FAILED = 2;
+
+    static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int MAX_STRIPES = 64;
+
+    private final Stripe<E>[] stripes;
+    private final int stripeMask;
+
+    StripedReadBuffer() {
+        int stripeCount = Math.min(MAX_STRIPES, ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 2));
+        @SuppressWarnings("unchecked")
+        Stripe<E>[] created = (Stripe<E>[]) new Stripe<?>[stripeCount];
+        stripes = created;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * @return SUCCESS if the element was recorded, FULL if the stripe is full and should be drained, FAILED if lost on a CAS race
+     */
+    int offer(E e) {
+        int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return stripes[(hash >>> 16) & stripeMask].offer(e);
+    }
+
+    /**
+     * Drain all the stripes, the caller must hold the eviction lock
+     */
+    void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes) {
+            stripe.drainTo(consumer);
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        int offer(E e) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= BUFFER_SIZE) {
+                return FULL;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & BUFFER_MASK), e);
+                return SUCCESS;
+            }
+            return FAILED;
+        }
+
+        void drainTo(Consumer<E> consumer) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head != tail; head++) {
+                int index = (int) (head & BUFFER_MASK);
+                E e = buffer.get(index);
+                // The writer has claimed the slot but not published the element yet, try it next time
+                if (e == null) {
+                    break;
+                }
+                buffer.lazySet(index, null);
+                consumer.accept(e);
+            }
+            readCounter = head;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package concurrentLRUCache;
+
+import java.util.function.Consumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 14:40
+ * A hierarchical timer wheel that tracks the expiration time of the cache entries
+ *
+ * <p>
+ * 1. Every level is a ring of buckets, a bucket is a circular doubly linked list of nodes, and the span of a bucket grows from
+ * about 16 milliseconds on the first level to about 1.6 days, the last level holds everything further away
+ * 2. Scheduling an entry picks the level whose range covers its delay and the bucket of its expiration tick, which is O(1)
+ * 3. Advancing the wheel only visits the buckets whose time has passed, the expired nodes are handed to the consumer and
+ * the ones that are not due yet (moved by expire-after-access, or coarse on the higher levels) cascade down to a lower level
+ * 4. The wheel is advanced by the cache maintenance under the cache lock, so there is no sweeper thread scanning the map
+ * <p>
+ * Not thread-safe, the owning cache guards it with its lock
+ */
+final class TimerWheel<N extends ExpirableNode> {
+
+    private static final int[] BUCKETS = {64, 64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+            1L << 24, // 16.78 milliseconds
+            1L << 30, // 1.07 seconds
+            1L << 36, // 1.15 minutes
+            1L << 42, // 1.22 hours
+            1L << 47, // 1.63 days
+            1L << 49, // 6.52 days
+            1L << 49
+    };
+    private static final long[] SHIFT = {24, 30, 36, 42, 47, 49};
+
+    private final Sentinel[][] wheel;
+    private long nanos;
+    private int scheduled;
+
+    TimerWheel(long now) {
+        wheel = new Sentinel[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = new Sentinel[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                wheel[i][j] = new Sentinel();
+            }
+        }
+        nanos = now;
+    }
+
+    boolean isEmpty() {
+        return scheduled == 0;
+    }
+
+    void schedule(N node) {
+        if (node.expiresAt == ExpirableNode.NEVER) {
+            return;
+        }
+        Sentinel sentinel = findBucket(node.expiresAt);
+        link(sentinel, node);
+        scheduled++;
+    }
+
+    void reschedule(N node) {
+        deschedule(node);
+        schedule(node);
+    }
+
+    void deschedule(N node) {
+        if (node.nextInTimer != null) {
+            unlink(node);
+            scheduled--;
+        }
+    }
+
+    /**
+     * Move the wheel to the current time, the expired nodes are unlinked from the wheel before given to the consumer
+     */
+    @SuppressWarnings("unchecked")
+    void advance(long now, Consumer<N> expired) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >> SHIFT[i];
+            long currentTicks = now >> SHIFT[i];
+            long delta = currentTicks - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            int mask = BUCKETS[i] - 1;
+            int steps = (int) Math.min(delta + 1, BUCKETS[i]);
+            int start = (int) (previousTicks & mask);
+            for (int step = 0; step < steps; step++) {
+                Sentinel sentinel = wheel[i][(start + step) & mask];
+                // Detach the whole bucket first, the nodes that are not due yet are put back at their new position
+                ExpirableNode node = sentinel.nextInTimer;
+                sentinel.prevInTimer = sentinel;
+                sentinel.nextInTimer = sentinel;
+                while (node != sentinel) {
+                    ExpirableNode next = node.nextInTimer;
+                    node.prevInTimer = null;
+                    node.nextInTimer = null;
+                    scheduled--;
+                    if (node.isExpired(now)) {
+                        expired.accept((N) node);
+                    } else {
+                        schedule((N) node);
+                    }
+                    node = next;
+                }
+            }
+        }
+    }
+
+    private Sentinel findBucket(long time) {
+        // An entry that is already due goes to the current bucket, which is visited by the next advance
+        long due = Math.max(time - nanos, 0) + nanos;
+        long delay = due - nanos;
+        int last = BUCKETS.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (delay < SPANS[i + 1]) {
+                long ticks = due >> SHIFT[i];
+                return wheel[i][(int) (ticks & (BUCKETS[i] - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    private static void link(Sentinel sentinel, ExpirableNode node) {
+        node.prevInTimer = sentinel.prevInTimer;
+        node.nextInTimer = sentinel;
+        sentinel.prevInTimer.nextInTimer = node;
+        sentinel.prevInTimer = node;
+    }
+
+    private static void unlink(ExpirableNode node) {
+        node.prevInTimer.nextInTimer = node.nextInTimer;
+        node.nextInTimer.prevInTimer = node.prevInTimer;
+        node.prevInTimer = null;
+        node.nextInTimer = null;
+    }
+
+    private static final class Sentinel extends ExpirableNode {
+        Sentinel() {
+            prevInTimer = this;
+            nextInTimer = this;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package concurrentLRUCache;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 15:50
+ * Calculates the weight of a cache entry, for example the size of the value in bytes
+ *
+ * <p>
+ * The weight is calculated once when the entry is put and must not be negative, an entry of weight 0 is never evicted by size
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    int weigh(K key, V value);
+
+    static <K, V> Weigher<K, V> singleton() {
+        return (key, value) -> 1;
+    }
+}
@@ -0,0 +1,62 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.BufferUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 22:50
+ * Compare the throughput of {@link MultiThreadsForUnsafeBuffer#aggregateBatch} with feeding the same records one byte[] at a time
+ *
+ * <p>
+ * The feed is one direct buffer of back-to-back 16-byte records, like a buffer read from a socket or a capture file.
+ * The per-record path copies every record into a new byte[] first, which is what a caller of aggregateMetrics has to do
+ */
+@Slf4j
+public class BatchIngestionBenchmark {
+
+    private static final int RECORDS = 4_000_000;
+    private static final int CLIENTS = 1_000;
+    private static final int POINTS = 8;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        UnsafeBuffer feed = new UnsafeBuffer(BufferUtil.allocateDirectAligned(RECORDS * MetricBuffer.LENGTH, 64));
+        Random random = new Random(42);
+        for (int i = 0; i < RECORDS; i++) {
+            int offset = i * MetricBuffer.LENGTH;
+            feed.putInt(offset, random.nextInt(CLIENTS));
+            feed.putInt(offset + 4, random.nextInt(POINTS));
+            feed.putLong(offset + 8, 1_000 + random.nextInt(1_000_000));
+        }
+
+        MultiThreadsForUnsafeBuffer aggregator = MultiThreadsForUnsafeBuffer.getInstance();
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < RECORDS; i++) {
+                byte[] record = new byte[MetricBuffer.LENGTH];
+                feed.getBytes(i * MetricBuffer.LENGTH, record);
+                aggregator.aggregateMetrics(record);
+            }
+            long perRecord = System.nanoTime() - start;
+            long perRecordAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            aggregator.aggregateBatch(feed, 0, RECORDS * MetricBuffer.LENGTH);
+            long batch = System.nanoTime() - start;
+            long batchAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            log.info("round {}: per-record {} M records/s ({} bytes allocated), batch {} M records/s ({} bytes allocated)", round,
+                    String.format("%.1f", RECORDS * 1_000.0 / perRecord), perRecordAllocated,
+                    String.format("%.1f", RECORDS * 1_000.0 / batch), batchAllocated);
+        }
+        log.info("clientId: 0, point: 0, {}", aggregator.getLatencySummary(0, 0));
+    }
+}
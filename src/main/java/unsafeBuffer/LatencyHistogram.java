@@ -0,0 +1,279 @@
+package unsafeBuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 22:10
+ * A fixed-memory latency histogram with log-linear buckets, recorded lock-free by any number of threads
+ *
+ * <p>
+ * 1. The values 0 to 7 have a bucket each, every higher power of two range is split into 8 equal buckets,
+ * so the whole long range fits in 488 counters (about 4KB) and a reported percentile is within 6.25% of the recorded value
+ * 2. Recording is one atomic add on the bucket plus the count, sum, min and max updates, there is no lock and no allocation
+ * 3. Histograms of different shards are merged by adding their counters, see {@link #merge(LatencyHistogram)}
+ * <p>
+ * A summary taken while other threads are recording is not an atomic snapshot, the counters may be a few records apart
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final AtomicLongFieldUpdater<LatencyHistogram> COUNT = AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "count");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> SUM = AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "sum");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> MIN = AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "min");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> MAX = AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "max");
+
+    private final long[] counts = new long[BUCKETS];
+    private volatile long count;
+    private volatile long sum;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max = Long.MIN_VALUE;
+
+    /**
+     * Negative latencies are recorded as 0
+     */
+    public void record(long latency) {
+        long value = Math.max(latency, 0);
+        // min and max first, so a reader that sees the bucket counter also sees a min and max that cover it
+        updateMin(value);
+        updateMax(value);
+        SUM.getAndAdd(this, value);
+        COUNTS.getAndAdd(counts, bucketOf(value), 1L);
+        COUNT.incrementAndGet(this);
+    }
+
+    /**
+     * Record from the only thread that writes this histogram, with ordered writes instead of atomic ones,
+     * the other threads may read it meanwhile and see it a few records behind
+     */
+    void recordSingleWriter(long latency) {
+        long value = Math.max(latency, 0);
+        if (value < min) {
+            MIN.lazySet(this, value);
+        }
+        if (value > max) {
+            MAX.lazySet(this, value);
+        }
+        SUM.lazySet(this, sum + value);
+        int bucket = bucketOf(value);
+        COUNTS.setRelease(counts, bucket, counts[bucket] + 1);
+        COUNT.lazySet(this, count + 1);
+    }
+
+    /**
+     * Add the records of other to this histogram, other may still be recording while it is merged
+     */
+    public void merge(LatencyHistogram other) {
+        long merged = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = (long) COUNTS.getVolatile(other.counts, i);
+            if (bucketCount != 0) {
+                COUNTS.getAndAdd(counts, i, bucketCount);
+                merged += bucketCount;
+            }
+        }
+        if (merged == 0) {
+            return;
+        }
+        SUM.getAndAdd(this, other.sum);
+        updateMin(other.min);
+        updateMax(other.max);
+        COUNT.getAndAdd(this, merged);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Forget every record, the caller makes sure nobody records meanwhile
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            COUNTS.setRelease(counts, i, 0L);
+        }
+        COUNT.lazySet(this, 0);
+        SUM.lazySet(this, 0);
+        MIN.lazySet(this, Long.MAX_VALUE);
+        MAX.lazySet(this, Long.MIN_VALUE);
+    }
+
+    public Summary summary() {
+        long[] snapshot = new long[BUCKETS];
+        addCountsTo(snapshot);
+        // Read after the counters, so they cover every counted record
+        return summarize(snapshot, sum, min, max);
+    }
+
+    /**
+     * Add the bucket counters of this histogram to target, which has {@link #BUCKETS} counters
+     */
+    void addCountsTo(long[] target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            target[i] += (long) COUNTS.getAcquire(counts, i);
+        }
+    }
+
+    long sum() {
+        return sum;
+    }
+
+    long min() {
+        return min;
+    }
+
+    long max() {
+        return max;
+    }
+
+    static Summary summarize(long[] counts, long sum, long minimum, long maximum) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i];
+        }
+        if (total == 0) {
+            return Summary.EMPTY;
+        }
+        return new Summary(total, minimum, maximum, (double) sum / total,
+                valueAt(counts, total, 0.50, minimum, maximum),
+                valueAt(counts, total, 0.90, minimum, maximum),
+                valueAt(counts, total, 0.99, minimum, maximum),
+                valueAt(counts, total, 0.999, minimum, maximum));
+    }
+
+    /**
+     * @return the middle of the bucket holding the record of the given rank, clamped to the recorded min and max
+     */
+    private static long valueAt(long[] snapshot, long total, double percentile, long minimum, long maximum) {
+        long rank = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                long lowest = lowestValueOf(i);
+                long middle = lowest + (bucketWidthOf(i) - 1) / 2;
+                return Math.max(minimum, Math.min(maximum, middle));
+            }
+        }
+        return maximum;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long bucketWidthOf(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+
+    private void updateMin(long value) {
+        long current;
+        while (value < (current = min) && !MIN.compareAndSet(this, current, value)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void updateMax(long value) {
+        long current;
+        while (value > (current = max) && !MAX.compareAndSet(this, current, value)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram" + summary();
+    }
+
+    /**
+     * An immutable view of a histogram, the percentiles are -1 if there is no record
+     */
+    public static final class Summary {
+        static final Summary EMPTY = new Summary(0, -1, -1, 0, -1, -1, -1, -1);
+
+        private final long count;
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+
+        Summary(long count, long min, long max, double mean, long p50, long p90, long p99, long p999) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long min() {
+            return min;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return mean;
+        }
+
+        public long p50() {
+            return p50;
+        }
+
+        public long p90() {
+            return p90;
+        }
+
+        public long p99() {
+            return p99;
+        }
+
+        public long p999() {
+            return p999;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                    "count=" + count +
+                    ", min=" + min +
+                    ", max=" + max +
+                    ", mean=" + String.format("%.1f", mean) +
+                    ", p50=" + p50 +
+                    ", p90=" + p90 +
+                    ", p99=" + p99 +
+                    ", p99.9=" + p999 +
+                    '}';
+        }
+    }
+}
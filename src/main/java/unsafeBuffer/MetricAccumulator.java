@@ -0,0 +1,74 @@
+package unsafeBuffer;
+
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.collections.Long2ObjectHashMap;
+import org.agrona.collections.LongObjConsumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 23:10
+ * A single-threaded aggregation of latencies per packed (clientId, point) key, owned by one thread at a time
+ *
+ * <p>
+ * 1. There are no atomics and no locks, the owner records with plain writes into Agrona's primitive-keyed maps
+ * 2. The other threads must not touch it until the owner hands it over with a happens-before edge,
+ * for example by finishing its task, then it is folded into a shared {@link MetricHistogramMap#merge(MetricAccumulator)}
+ * 3. The histogram of a key is allocated the first time the key is seen, recording an existing key allocates nothing
+ */
+public class MetricAccumulator {
+
+    static final long MISSING_VALUE = Long.MIN_VALUE;
+
+    private final Long2ObjectHashMap<LatencyHistogram> histograms;
+    private final Long2LongHashMap latest;
+
+    public MetricAccumulator() {
+        this(1 << 10);
+    }
+
+    public MetricAccumulator(int expectedKeys) {
+        this.histograms = new Long2ObjectHashMap<>(expectedKeys * 2, 0.65f);
+        this.latest = new Long2LongHashMap(expectedKeys * 2, 0.65f, MISSING_VALUE);
+    }
+
+    public void record(long key, long latency) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms.put(key, histogram);
+        }
+        histogram.recordSingleWriter(latency);
+        if (latency != MISSING_VALUE) {
+            latest.put(key, latency);
+        }
+    }
+
+    /**
+     * @return the histogram of key, or null if the key is not exists
+     */
+    public LatencyHistogram histogram(long key) {
+        return histograms.get(key);
+    }
+
+    /**
+     * @return the latest latency of key, or Long.MIN_VALUE if the key is not exists
+     */
+    public long latest(long key) {
+        return latest.get(key);
+    }
+
+    public void forEach(LongObjConsumer<LatencyHistogram> consumer) {
+        histograms.forEachLong(consumer);
+    }
+
+    public int size() {
+        return histograms.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricAccumulator{" +
+                "size=" + size() +
+                '}';
+    }
+}
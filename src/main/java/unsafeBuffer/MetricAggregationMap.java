@@ -0,0 +1,362 @@
+package unsafeBuffer;
+
+import org.agrona.collections.Hashing;
+import org.agrona.collections.LongLongConsumer;
+import org.agrona.collections.LongObjConsumer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 21:50
+ * A concurrent map from the packed (clientId, point) pair to a primitive long, with no allocation on the put and get paths
+ *
+ * <p>
+ * 1. The key is the clientId in the high 32 bits and the point in the low 32 bits, see {@link #pack(int, int)}
+ * 2. Open addressing with linear probing over two parallel long arrays, a new key claims its slot with a CAS on the key array,
+ * so threads inserting different keys never block each other and an existing key is updated with a single write
+ * 3. The table starts at twice the expected number of keys and doubles once it is half full, so the probes stay short.
+ * One thread migrates the keys: it freezes every free slot of the old table with {@link #MOVED_KEY}, so no key can be claimed
+ * behind it, and copies the occupied ones. A writer that meets a frozen slot, or that wrote into the old table while it was
+ * migrated, waits for the new table and writes again there. Only the writers wait, and only while a migration runs
+ * 4. A slot may carry an attachment, such as the histogram of the key, created on first use and moved with the key
+ * 5. There is no removal. A reader that finds a key whose value is not published yet sees the missing value, like the key was not inserted yet
+ * <p>
+ * The keys {@link #EMPTY_KEY} and {@link #MOVED_KEY} (clientId Integer.MIN_VALUE and point 0 or 1) mark the free slots and can not be stored
+ */
+public class MetricAggregationMap {
+
+    static final long EMPTY_KEY = Long.MIN_VALUE;
+    static final long MOVED_KEY = Long.MIN_VALUE + 1;
+    private static final int MAX_LENGTH = 1 << 30;
+    // The attachment of a slot that was still free when the slot was migrated
+    private static final Object MOVED = new Object();
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle OBJECTS = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final AtomicReferenceFieldUpdater<Table, Table> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Table.class, Table.class, "next");
+
+    private final long missingValue;
+    private final boolean attachments;
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Table table;
+
+    /**
+     * @param capacity the expected number of keys, the map grows past it
+     */
+    public MetricAggregationMap(int capacity) {
+        this(capacity, Long.MIN_VALUE);
+    }
+
+    public MetricAggregationMap(int capacity, long missingValue) {
+        this(capacity, missingValue, false);
+    }
+
+    MetricAggregationMap(int capacity, long missingValue, boolean attachments) {
+        if (capacity <= 0 || capacity > MAX_LENGTH / 2) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^29]: " + capacity);
+        }
+        this.missingValue = missingValue;
+        this.attachments = attachments;
+        this.table = new Table(1 << -Integer.numberOfLeadingZeros(Math.max(capacity, 1) * 2 - 1), missingValue, attachments);
+    }
+
+    public static long pack(int clientId, int point) {
+        return Hashing.compoundKey(clientId, point);
+    }
+
+    public static int clientId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int point(long key) {
+        return (int) key;
+    }
+
+    /**
+     * @throws IllegalStateException if the map has reached its largest table and every slot is taken
+     */
+    public void put(long key, long value) {
+        Table t = table;
+        while (true) {
+            int index = claim(t, key);
+            if (index >= 0) {
+                // Volatile, so either the migration sees the value or this writer sees the migration
+                LONGS.setVolatile(t.values, index, value);
+                if (t.next == null) {
+                    return;
+                }
+            }
+            t = awaitMigration(t);
+        }
+    }
+
+    /**
+     * @return the value of key, or the missing value if the key is not exists
+     */
+    public long get(long key) {
+        Table t = table;
+        int index = find(t, key);
+        return index < 0 ? missingValue : (long) LONGS.getAcquire(t.values, index);
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != missingValue;
+    }
+
+    /**
+     * Visit every published entry, concurrent puts may or may not be seen
+     */
+    public void forEach(LongLongConsumer consumer) {
+        Table t = table;
+        for (int i = 0; i < t.keys.length; i++) {
+            long key = (long) LONGS.getAcquire(t.keys, i);
+            if (key != EMPTY_KEY && key != MOVED_KEY) {
+                long value = (long) LONGS.getAcquire(t.values, i);
+                if (value != missingValue) {
+                    consumer.accept(key, value);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of slots of the current table, twice the number of keys it holds before it grows
+     */
+    public int capacity() {
+        return table.keys.length;
+    }
+
+    public long missingValue() {
+        return missingValue;
+    }
+
+    /**
+     * Find or insert key and return its attachment, the factory creates it the first time,
+     * a factory that lost the race to another thread has its object dropped
+     */
+    <T> T attach(long key, Supplier<T> factory) {
+        Table t = table;
+        while (true) {
+            int index = claim(t, key);
+            if (index >= 0) {
+                T attachment = attachmentAt(t, index, factory);
+                if (attachment != null) {
+                    return attachment;
+                }
+            }
+            t = awaitMigration(t);
+        }
+    }
+
+    /**
+     * Put and return the attachment of key with a single probe, the value may be seen a moment before
+     * the caller has applied it to the attachment
+     */
+    <T> T putAndAttach(long key, long value, Supplier<T> factory) {
+        Table t = table;
+        while (true) {
+            int index = claim(t, key);
+            if (index >= 0) {
+                T attachment = attachmentAt(t, index, factory);
+                if (attachment != null) {
+                    LONGS.setVolatile(t.values, index, value);
+                    if (t.next == null) {
+                        return attachment;
+                    }
+                    // The value may have been missed by the migration, the attachment was not
+                    put(key, value);
+                    return attachment;
+                }
+            }
+            t = awaitMigration(t);
+        }
+    }
+
+    /**
+     * @return the attachment of key, or null if the key is not exists or has none yet
+     */
+    @SuppressWarnings("unchecked")
+    <T> T attachment(long key) {
+        Table t = table;
+        int index = find(t, key);
+        if (index < 0) {
+            return null;
+        }
+        Object attachment = OBJECTS.getAcquire(t.attachments, index);
+        return attachment == MOVED ? null : (T) attachment;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> void forEachAttachment(LongObjConsumer<T> consumer) {
+        Table t = table;
+        for (int i = 0; i < t.keys.length; i++) {
+            Object attachment = OBJECTS.getAcquire(t.attachments, i);
+            if (attachment != null && attachment != MOVED) {
+                consumer.accept((long) LONGS.getAcquire(t.keys, i), (T) attachment);
+            }
+        }
+    }
+
+    /**
+     * @return the attachment of the slot, created by the factory if it has none, or null if the slot was migrated without one
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T attachmentAt(Table t, int index, Supplier<T> factory) {
+        Object attachment = OBJECTS.getAcquire(t.attachments, index);
+        if (attachment == null) {
+            T created = factory.get();
+            attachment = OBJECTS.compareAndExchange(t.attachments, index, null, created);
+            if (attachment == null) {
+                return created;
+            }
+        }
+        // An attachment is moved along with its key, so it stays the attachment in the new table as well
+        return attachment == MOVED ? null : (T) attachment;
+    }
+
+    /**
+     * Find the slot of key, or claim a free one for it
+     *
+     * @return the slot, or -1 if the table is being migrated
+     */
+    private int claim(Table t, long key) {
+        if (key == EMPTY_KEY || key == MOVED_KEY) {
+            throw new IllegalArgumentException("the key " + key + " is reserved for the free slots");
+        }
+        int mask = t.mask;
+        int index = Hashing.hash(key, mask);
+        for (int probe = 0; probe <= mask; probe++) {
+            long current = (long) LONGS.getAcquire(t.keys, index);
+            if (current == key) {
+                return index;
+            }
+            if (current == MOVED_KEY) {
+                return -1;
+            }
+            if (current == EMPTY_KEY) {
+                // Lost the race only if another thread claimed the slot, and that thread may have claimed it for the same key
+                long witness = (long) LONGS.compareAndExchange(t.keys, index, EMPTY_KEY, key);
+                if (witness == EMPTY_KEY) {
+                    if (size.incrementAndGet() > t.keys.length >>> 1) {
+                        resize(t);
+                    }
+                    return index;
+                }
+                if (witness == key) {
+                    return index;
+                }
+                if (witness == MOVED_KEY) {
+                    return -1;
+                }
+            }
+            index = (index + 1) & mask;
+        }
+        if (!resize(t)) {
+            throw new IllegalStateException("the map is full, capacity: " + t.keys.length);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slot of key, or -1 if the key is not exists
+     */
+    private static int find(Table t, long key) {
+        int mask = t.mask;
+        int index = Hashing.hash(key, mask);
+        for (int probe = 0; probe <= mask; probe++) {
+            long current = (long) LONGS.getAcquire(t.keys, index);
+            if (current == key) {
+                return index;
+            }
+            if (current == EMPTY_KEY || current == MOVED_KEY) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Migrate t into a table twice as large, unless another thread already does
+     *
+     * @return false if t is already the largest table
+     */
+    private boolean resize(Table t) {
+        if (t.keys.length >= MAX_LENGTH) {
+            return false;
+        }
+        if (t.next != null) {
+            return true;
+        }
+        // Allocated before anything is frozen, so a failed allocation leaves the old table usable
+        Table bigger = new Table(t.keys.length << 1, missingValue, attachments);
+        if (!NEXT.compareAndSet(t, null, bigger)) {
+            return true;
+        }
+        for (int i = 0; i < t.keys.length; i++) {
+            long key = (long) LONGS.getAcquire(t.keys, i);
+            if (key == EMPTY_KEY) {
+                key = (long) LONGS.compareAndExchange(t.keys, i, EMPTY_KEY, MOVED_KEY);
+                if (key == EMPTY_KEY) {
+                    continue;
+                }
+            }
+            // Only this thread writes the new table until it is published
+            int index = Hashing.hash(key, bigger.mask);
+            while (bigger.keys[index] != EMPTY_KEY) {
+                index = (index + 1) & bigger.mask;
+            }
+            bigger.keys[index] = key;
+            if (attachments) {
+                bigger.attachments[index] = OBJECTS.compareAndExchange(t.attachments, i, null, MOVED);
+            }
+            bigger.values[index] = (long) LONGS.getVolatile(t.values, i);
+        }
+        table = bigger;
+        return true;
+    }
+
+    private Table awaitMigration(Table t) {
+        Table current;
+        while ((current = table) == t) {
+            Thread.yield();
+        }
+        return current;
+    }
+
+    private static final class Table {
+        private final long[] keys;
+        private final long[] values;
+        private final Object[] attachments;
+        private final int mask;
+        // Set once a migration of this table has started
+        private volatile Table next;
+
+        Table(int length, long missingValue, boolean attachments) {
+            keys = new long[length];
+            values = new long[length];
+            this.attachments = attachments ? new Object[length] : null;
+            mask = length - 1;
+            Arrays.fill(keys, EMPTY_KEY);
+            Arrays.fill(values, missingValue);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetricAggregationMap{" +
+                "size=" + size() +
+                ", capacity=" + capacity() +
+                '}';
+    }
+}
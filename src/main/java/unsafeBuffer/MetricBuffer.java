@@ -12,6 +12,14 @@ import java.nio.ByteBuffer;
  */
 public class MetricBuffer extends UnsafeBuffer {
 
+    /**
+     * clientId (int), point (int) and latency (long)
+     */
+    public static final int LENGTH = 16;
+    public static final int CLIENT_ID_OFFSET = 0;
+    public static final int POINT_OFFSET = 4;
+    public static final int LATENCY_OFFSET = 8;
+
     public MetricBuffer() {
         super();
     }
@@ -45,15 +53,15 @@ public class MetricBuffer extends UnsafeBuffer {
     }
 
     public int getClientId(){
-        return getInt(0);
+        return getInt(CLIENT_ID_OFFSET);
     }
 
     public int getPoint(){
-        return getInt(4);
+        return getInt(POINT_OFFSET);
     }
 
     public long getLatency(){
-        return getLong(8);
+        return getLong(LATENCY_OFFSET);
     }
 
     @Override
@@ -71,6 +79,17 @@ public class MetricBuffer extends UnsafeBuffer {
 
     @Override
     public int hashCode() {
-        return Integer.hashCode(getClientId()) + Integer.hashCode(getPoint());
+        return Long.hashCode(keyHash(getClientId(), getPoint()));
+    }
+
+    /**
+     * A well-mixed 64-bit hash of the (clientId, point) pair, the finalizer of SplitMix64 over the packed pair,
+     * unlike clientId + point it does not send (1, 2) and (2, 1), or any of the pairs with the same sum, to the same bucket
+     */
+    public static long keyHash(int clientId, int point) {
+        long h = ((long) clientId << 32) | (point & 0xFFFFFFFFL);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
     }
 }
@@ -0,0 +1,509 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.BitUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.IntHashSet;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+
+/**
+ * @author lzn
+ * @date 2026/10/18 02:00
+ * A framed binary codec for the metric records, decoded in place by reused flyweights
+ *
+ * <p>
+ * Layout, little endian:
+ * 1. Message header: type (short), version (short), body length (int), then the body, the frame is padded to 8 bytes
+ * 2. Batch: a message header of type {@link #TYPE_BATCH} whose body is the frames of the records back-to-back
+ * 3. Bodies, every field at a fixed offset:
+ * latency (type 1): clientId (int), point (int), latency (long), the same 16 bytes as {@link MetricBuffer}
+ * timestamp (type 2): clientId (int), point (int), latency (long), epoch nanos of the request (long)
+ * status (type 3): clientId (int), point (int), status code (int)
+ * byte count (type 4): clientId (int), point (int), bytes in (long), bytes out (long)
+ * <p>
+ * Versioning: a new version only appends fields to a body, the body length in the header tells the decoder where the frame ends,
+ * so an old decoder reads the fields it knows from a newer record and a frame of an unknown type is skipped.
+ * A version below 1 is rejected, any other is decoded by the block length of {@link #VERSION}.
+ * The decoder hands out read-only flyweights, the {@link BatchEncoder} its own writing ones.
+ * The producers of plain 16-byte records keep working, their records are the latency bodies without the header
+ */
+@Slf4j
+public final class MetricCodec {
+
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final int HEADER_LENGTH = 8;
+    public static final int FRAME_ALIGNMENT = 8;
+
+    public static final short TYPE_BATCH = 0;
+    public static final short TYPE_LATENCY = 1;
+    public static final short TYPE_TIMESTAMP = 2;
+    public static final short TYPE_STATUS = 3;
+    public static final short TYPE_BYTE_COUNT = 4;
+    public static final short VERSION = 1;
+
+    private static final int TYPE_OFFSET = 0;
+    private static final int VERSION_OFFSET = 2;
+    private static final int LENGTH_OFFSET = 4;
+
+    private MetricCodec() {
+    }
+
+    public static short type(DirectBuffer buffer, int offset) {
+        return buffer.getShort(offset + TYPE_OFFSET, ORDER);
+    }
+
+    public static short version(DirectBuffer buffer, int offset) {
+        return buffer.getShort(offset + VERSION_OFFSET, ORDER);
+    }
+
+    public static int bodyLength(DirectBuffer buffer, int offset) {
+        return buffer.getInt(offset + LENGTH_OFFSET, ORDER);
+    }
+
+    /**
+     * @return the bytes the frame of a body of that length takes, header and padding included
+     */
+    public static int frameLength(int bodyLength) {
+        return BitUtil.align(HEADER_LENGTH + bodyLength, FRAME_ALIGNMENT);
+    }
+
+    static void putHeader(MutableDirectBuffer buffer, int offset, short type, int bodyLength) {
+        buffer.putShort(offset + TYPE_OFFSET, type, ORDER);
+        buffer.putShort(offset + VERSION_OFFSET, VERSION, ORDER);
+        buffer.putInt(offset + LENGTH_OFFSET, bodyLength, ORDER);
+    }
+
+    /**
+     * The fields every record starts with, a read-only view of a body, the decoder hands it out
+     */
+    public abstract static class RecordFlyweight {
+        static final int CLIENT_ID_OFFSET = 0;
+        static final int POINT_OFFSET = 4;
+
+        DirectBuffer buffer;
+        int offset;
+        int length;
+        short version;
+
+        void wrap(DirectBuffer buffer, int offset, int length, short version) {
+            if (length < blockLength()) {
+                throw new IllegalArgumentException("truncated record of type " + type() + ": " + length + " bytes");
+            }
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+        }
+
+        /**
+         * @return the body length of the current version
+         */
+        abstract int blockLength();
+
+        abstract short type();
+
+        /**
+         * @return the version of the record, a newer one than {@link #VERSION} is read by the fields this version knows
+         */
+        public short version() {
+            return version;
+        }
+
+        public int clientId() {
+            return buffer.getInt(offset + CLIENT_ID_OFFSET, ORDER);
+        }
+
+        public int point() {
+            return buffer.getInt(offset + POINT_OFFSET, ORDER);
+        }
+
+        public long key() {
+            return MetricAggregationMap.pack(clientId(), point());
+        }
+    }
+
+    public static final class LatencyRecord extends RecordFlyweight {
+        static final int BLOCK_LENGTH = 16;
+        static final int LATENCY_OFFSET = 8;
+
+        public long latency() {
+            return buffer.getLong(offset + LATENCY_OFFSET, ORDER);
+        }
+
+        @Override
+        int blockLength() {
+            return BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_LATENCY;
+        }
+    }
+
+    public static final class TimestampRecord extends RecordFlyweight {
+        static final int BLOCK_LENGTH = 24;
+        static final int LATENCY_OFFSET = 8;
+        static final int EPOCH_NANOS_OFFSET = 16;
+
+        public long latency() {
+            return buffer.getLong(offset + LATENCY_OFFSET, ORDER);
+        }
+
+        public long epochNanos() {
+            return buffer.getLong(offset + EPOCH_NANOS_OFFSET, ORDER);
+        }
+
+        @Override
+        int blockLength() {
+            return BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_TIMESTAMP;
+        }
+    }
+
+    public static final class StatusRecord extends RecordFlyweight {
+        static final int BLOCK_LENGTH = 12;
+        static final int STATUS_CODE_OFFSET = 8;
+
+        public int statusCode() {
+            return buffer.getInt(offset + STATUS_CODE_OFFSET, ORDER);
+        }
+
+        @Override
+        int blockLength() {
+            return BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_STATUS;
+        }
+    }
+
+    public static final class ByteCountRecord extends RecordFlyweight {
+        static final int BLOCK_LENGTH = 24;
+        static final int BYTES_IN_OFFSET = 8;
+        static final int BYTES_OUT_OFFSET = 16;
+
+        public long bytesIn() {
+            return buffer.getLong(offset + BYTES_IN_OFFSET, ORDER);
+        }
+
+        public long bytesOut() {
+            return buffer.getLong(offset + BYTES_OUT_OFFSET, ORDER);
+        }
+
+        @Override
+        int blockLength() {
+            return BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_BYTE_COUNT;
+        }
+    }
+
+    /**
+     * The writing side of a record, handed out by {@link BatchEncoder} only, at the offsets of the matching read flyweight
+     */
+    public abstract static class RecordEncoder {
+        MutableDirectBuffer buffer;
+        int offset;
+
+        void wrap(MutableDirectBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        abstract int blockLength();
+
+        abstract short type();
+
+        void putKey(int clientId, int point) {
+            buffer.putInt(offset + RecordFlyweight.CLIENT_ID_OFFSET, clientId, ORDER);
+            buffer.putInt(offset + RecordFlyweight.POINT_OFFSET, point, ORDER);
+        }
+    }
+
+    public static final class LatencyEncoder extends RecordEncoder {
+
+        public LatencyEncoder set(int clientId, int point, long latency) {
+            putKey(clientId, point);
+            buffer.putLong(offset + LatencyRecord.LATENCY_OFFSET, latency, ORDER);
+            return this;
+        }
+
+        @Override
+        int blockLength() {
+            return LatencyRecord.BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_LATENCY;
+        }
+    }
+
+    public static final class TimestampEncoder extends RecordEncoder {
+
+        public TimestampEncoder set(int clientId, int point, long latency, long epochNanos) {
+            putKey(clientId, point);
+            buffer.putLong(offset + TimestampRecord.LATENCY_OFFSET, latency, ORDER);
+            buffer.putLong(offset + TimestampRecord.EPOCH_NANOS_OFFSET, epochNanos, ORDER);
+            return this;
+        }
+
+        @Override
+        int blockLength() {
+            return TimestampRecord.BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_TIMESTAMP;
+        }
+    }
+
+    public static final class StatusEncoder extends RecordEncoder {
+
+        public StatusEncoder set(int clientId, int point, int statusCode) {
+            putKey(clientId, point);
+            buffer.putInt(offset + StatusRecord.STATUS_CODE_OFFSET, statusCode, ORDER);
+            return this;
+        }
+
+        @Override
+        int blockLength() {
+            return StatusRecord.BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_STATUS;
+        }
+    }
+
+    public static final class ByteCountEncoder extends RecordEncoder {
+
+        public ByteCountEncoder set(int clientId, int point, long bytesIn, long bytesOut) {
+            putKey(clientId, point);
+            buffer.putLong(offset + ByteCountRecord.BYTES_IN_OFFSET, bytesIn, ORDER);
+            buffer.putLong(offset + ByteCountRecord.BYTES_OUT_OFFSET, bytesOut, ORDER);
+            return this;
+        }
+
+        @Override
+        int blockLength() {
+            return ByteCountRecord.BLOCK_LENGTH;
+        }
+
+        @Override
+        short type() {
+            return TYPE_BYTE_COUNT;
+        }
+    }
+
+    /**
+     * The callbacks of {@link BatchDecoder}, the flyweights are only valid during the call
+     */
+    public interface RecordHandler {
+        default void onLatency(LatencyRecord record) {
+        }
+
+        default void onTimestamp(TimestampRecord record) {
+        }
+
+        default void onStatus(StatusRecord record) {
+        }
+
+        default void onByteCount(ByteCountRecord record) {
+        }
+
+        /**
+         * A frame of a type this decoder does not know, for example from a newer producer
+         */
+        default void onUnknown(short type, short version, DirectBuffer buffer, int offset, int length) {
+        }
+    }
+
+    /**
+     * Append records to a batch in a buffer, one reused flyweight per type, not thread-safe
+     */
+    public static final class BatchEncoder {
+        private final LatencyEncoder latency = new LatencyEncoder();
+        private final TimestampEncoder timestamp = new TimestampEncoder();
+        private final StatusEncoder status = new StatusEncoder();
+        private final ByteCountEncoder byteCount = new ByteCountEncoder();
+
+        private MutableDirectBuffer buffer;
+        private int offset;
+        private int position;
+        private int count;
+
+        public BatchEncoder wrap(MutableDirectBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.position = offset + HEADER_LENGTH;
+            this.count = 0;
+            return this;
+        }
+
+        public LatencyEncoder latency() {
+            return append(latency);
+        }
+
+        public TimestampEncoder timestamp() {
+            return append(timestamp);
+        }
+
+        public StatusEncoder status() {
+            return append(status);
+        }
+
+        public ByteCountEncoder byteCount() {
+            return append(byteCount);
+        }
+
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Write the batch header
+         *
+         * @return the length of the batch, header included
+         */
+        public int finish() {
+            putHeader(buffer, offset, TYPE_BATCH, position - offset - HEADER_LENGTH);
+            return position - offset;
+        }
+
+        private <R extends RecordEncoder> R append(R record) {
+            int bodyLength = record.blockLength();
+            int frameLength = frameLength(bodyLength);
+            if (position + frameLength > buffer.capacity()) {
+                throw new IllegalStateException("the batch is full after " + count + " records");
+            }
+            putHeader(buffer, position, record.type(), bodyLength);
+            record.wrap(buffer, position + HEADER_LENGTH);
+            position += frameLength;
+            count++;
+            return record;
+        }
+    }
+
+    /**
+     * Walk a batch in place and hand every record to a handler, one reused read-only flyweight per type, not thread-safe
+     */
+    public static final class BatchDecoder {
+        private final LatencyRecord latency = new LatencyRecord();
+        private final TimestampRecord timestamp = new TimestampRecord();
+        private final StatusRecord status = new StatusRecord();
+        private final ByteCountRecord byteCount = new ByteCountRecord();
+
+        /**
+         * @return the number of records in the batch
+         * @throws IllegalArgumentException if the buffer does not start with a whole batch, or a record has no valid version
+         */
+        public int decode(DirectBuffer buffer, int offset, RecordHandler handler) {
+            if (buffer.capacity() - offset < HEADER_LENGTH || type(buffer, offset) != TYPE_BATCH) {
+                throw new IllegalArgumentException("not a batch at offset " + offset);
+            }
+            int batchLength = bodyLength(buffer, offset);
+            // Compared without adding to offset, a huge length must not overflow into a small end
+            if (batchLength < 0 || batchLength > buffer.capacity() - offset - HEADER_LENGTH) {
+                throw new IllegalArgumentException("truncated batch, " + batchLength + " bytes after offset " + offset
+                        + " of " + buffer.capacity());
+            }
+            int end = offset + HEADER_LENGTH + batchLength;
+            int count = 0;
+            int position = offset + HEADER_LENGTH;
+            while (position < end) {
+                if (end - position < HEADER_LENGTH) {
+                    throw new IllegalArgumentException("truncated frame header at " + position);
+                }
+                short type = type(buffer, position);
+                short version = version(buffer, position);
+                int length = bodyLength(buffer, position);
+                int body = position + HEADER_LENGTH;
+                if (length < 0 || length > end - body) {
+                    throw new IllegalArgumentException("truncated frame at " + position);
+                }
+                // Every version is at least 1, a newer one only appends fields and is read by the block length of this one
+                if (version < 1) {
+                    throw new IllegalArgumentException("invalid version " + version + " of the frame at " + position);
+                }
+                switch (type) {
+                    case TYPE_LATENCY:
+                        latency.wrap(buffer, body, length, version);
+                        handler.onLatency(latency);
+                        break;
+                    case TYPE_TIMESTAMP:
+                        timestamp.wrap(buffer, body, length, version);
+                        handler.onTimestamp(timestamp);
+                        break;
+                    case TYPE_STATUS:
+                        status.wrap(buffer, body, length, version);
+                        handler.onStatus(status);
+                        break;
+                    case TYPE_BYTE_COUNT:
+                        byteCount.wrap(buffer, body, length, version);
+                        handler.onByteCount(byteCount);
+                        break;
+                    default:
+                        handler.onUnknown(type, version, buffer, body, length);
+                }
+                position += frameLength(length);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    public static void main(String[] args) {
+        UnsafeBuffer buffer = new UnsafeBuffer(new byte[1 << 16]);
+        BatchEncoder encoder = new BatchEncoder().wrap(buffer, 0);
+        for (int i = 0; i < 500; i++) {
+            encoder.latency().set(i % 50, i % 4, 1_000 + i);
+            if (i % 10 == 0) {
+                encoder.timestamp().set(i % 50, i % 4, 2_000 + i, System.currentTimeMillis() * 1_000_000);
+                encoder.status().set(i % 50, i % 4, i % 20 == 0 ? 200 : 503);
+                encoder.byteCount().set(i % 50, i % 4, 512, 4_096);
+            }
+        }
+        int length = encoder.finish();
+        log.info("encoded {} records in {} bytes", encoder.count(), length);
+
+        MultiThreadsForUnsafeBuffer aggregator = MultiThreadsForUnsafeBuffer.getInstance();
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int round = 0; round < 3; round++) {
+            long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+            int records = 0;
+            for (int i = 0; i < 10_000; i++) {
+                records += aggregator.aggregateFrames(buffer, 0);
+            }
+            log.info("decoded {} records, allocated {} bytes", records, threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore);
+        }
+        log.info("clientId 10, point 2: {}", aggregator.getLatencySummary(10, 2));
+
+        // The distinct hash codes of 10k clients x 16 points, with the old clientId + point and with the mixed hash
+        IntHashSet oldHashes = new IntHashSet();
+        IntHashSet mixedHashes = new IntHashSet();
+        for (int clientId = 0; clientId < 10_000; clientId++) {
+            for (int point = 0; point < 16; point++) {
+                oldHashes.add(clientId + point);
+                mixedHashes.add(Long.hashCode(MetricBuffer.keyHash(clientId, point)));
+            }
+        }
+        log.info("160000 keys, distinct hash codes: clientId + point {}, mixed {}", oldHashes.size(), mixedHashes.size());
+    }
+}
@@ -0,0 +1,105 @@
+package unsafeBuffer;
+
+import org.agrona.collections.LongObjConsumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 22:30
+ * A {@link LatencyHistogram} per packed (clientId, point) key, next to the latest latency of the key
+ *
+ * <p>
+ * 1. The slots come from a {@link MetricAggregationMap}, which keeps the latest latency, and the histograms are the attachments
+ * of its slots, so they move with the keys when the map grows
+ * 2. The histogram of a key is created and published with a CAS the first time the key is recorded,
+ * from then on recording a latency allocates nothing and takes no lock
+ * 3. Two maps, for example the maps of two shards, are combined with {@link #merge(MetricHistogramMap)}
+ */
+public class MetricHistogramMap {
+
+    private final MetricAggregationMap latest;
+
+    /**
+     * @param capacity the expected number of keys, the map grows past it
+     */
+    public MetricHistogramMap(int capacity) {
+        this.latest = new MetricAggregationMap(capacity, Long.MIN_VALUE, true);
+    }
+
+    public void record(long key, long latency) {
+        latest.putAndAttach(key, latency, LatencyHistogram::new).record(latency);
+    }
+
+    /**
+     * @return the histogram of key, or null if the key is not exists
+     */
+    public LatencyHistogram histogram(long key) {
+        return latest.attachment(key);
+    }
+
+    /**
+     * @return the summary of the histogram of key, or null if the key is not exists
+     */
+    public LatencyHistogram.Summary summary(long key) {
+        LatencyHistogram histogram = histogram(key);
+        return histogram == null ? null : histogram.summary();
+    }
+
+    /**
+     * @return the latest latency of key, or {@link #missingValue()} if the key is not exists
+     */
+    public long latest(long key) {
+        return latest.get(key);
+    }
+
+    public long missingValue() {
+        return latest.missingValue();
+    }
+
+    /**
+     * Add every histogram of other to the histogram of the same key in this map, other may still be recording
+     */
+    public void merge(MetricHistogramMap other) {
+        other.forEach((key, histogram) -> merge(key, histogram, other.latest(key), other.missingValue()));
+    }
+
+    /**
+     * Add every histogram of a thread-confined accumulator, after its writer has finished or handed it over
+     */
+    public void merge(MetricAccumulator accumulator) {
+        accumulator.forEach((key, histogram) -> merge(key, histogram, accumulator.latest(key), MetricAccumulator.MISSING_VALUE));
+    }
+
+    private void merge(long key, LatencyHistogram histogram, long latency, long missingValue) {
+        latest.attach(key, LatencyHistogram::new).merge(histogram);
+        if (latency != missingValue) {
+            latest.put(key, latency);
+        }
+    }
+
+    public void forEach(LongObjConsumer<LatencyHistogram> consumer) {
+        latest.forEachAttachment(consumer);
+    }
+
+    /**
+     * @return the latest latency of every key, backed by this map
+     */
+    public MetricAggregationMap latestValues() {
+        return latest;
+    }
+
+    public int size() {
+        return latest.size();
+    }
+
+    public int capacity() {
+        return latest.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricHistogramMap{" +
+                "size=" + size() +
+                ", capacity=" + capacity() +
+                '}';
+    }
+}
@@ -0,0 +1,290 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.MessageHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RecordDescriptor;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author lzn
+ * @date 2026/10/18 00:30
+ * An ingest front end where the producers only write records into an Agrona {@link ManyToOneRingBuffer},
+ * and one aggregator thread drains them into a single-writer {@link MetricShard}
+ *
+ * <p>
+ * 1. A producer claims 16 bytes in the ring and writes the record fields straight into it, there is no copy and no allocation
+ * 2. When the ring is full the producer gets a {@link OfferResult} instead of blocking forever,
+ * with {@link BackPressure#DROP} it gives up at once, with {@link BackPressure#WAIT} it retries until the maximum wait
+ * 3. The aggregator reads the ring in batches, it is the only writer of the store, so recording needs no CAS at all
+ * 4. {@link #ringDepth()} and {@link #droppedCount()} tell how close to saturation the pipeline runs,
+ * the back-pressure is at the ring only: the store grows with the keys, so the aggregator never drops a valid record,
+ * only a record the store rejects, such as one of the reserved key, is counted as dropped as well
+ * 5. A producer counts itself in flight before it checks whether the pipeline is closed, so close() drains only
+ * once every producer that got past the check has committed its record, an accepted record is never lost
+ * <p>
+ * The reads see the store the aggregator writes, so they lag the producers by the records still in the ring
+ */
+@Slf4j
+public class MetricIngestPipeline implements AutoCloseable {
+
+    public enum BackPressure {
+        /**
+         * Return {@link OfferResult#DROPPED} as soon as the ring is full
+         */
+        DROP,
+        /**
+         * Retry with a backoff until the ring has room or the maximum wait is over
+         */
+        WAIT
+    }
+
+    public enum OfferResult {
+        ACCEPTED,
+        DROPPED,
+        CLOSED
+    }
+
+    private static final int MSG_TYPE_METRIC = 1;
+    private static final int FRAME_LENGTH = RecordDescriptor.HEADER_LENGTH + MetricBuffer.LENGTH;
+    private static final int DRAIN_LIMIT = 256;
+    private static final long ERROR_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final AtomicLongFieldUpdater<MetricIngestPipeline> AGGREGATED =
+            AtomicLongFieldUpdater.newUpdater(MetricIngestPipeline.class, "aggregatedCount");
+    private static final AtomicIntegerFieldUpdater<MetricIngestPipeline> IN_FLIGHT =
+            AtomicIntegerFieldUpdater.newUpdater(MetricIngestPipeline.class, "inFlight");
+
+    private final ManyToOneRingBuffer ringBuffer;
+    private final BackPressure backPressure;
+    private final long maxWaitNanos;
+    private final MetricShard store;
+    private final AgentRunner runner;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long aggregatedCount;
+    // The producers between their check of closed and the commit of their record
+    private volatile int inFlight;
+    private volatile boolean closed;
+
+    /**
+     * @param ringCapacity  bytes of the ring, a power of two, every record takes 24 bytes with its header
+     * @param storeCapacity the expected number of keys, the store grows past it
+     * @param maxWait       how long a producer retries with {@link BackPressure#WAIT}, ignored with {@link BackPressure#DROP}
+     */
+    public MetricIngestPipeline(int ringCapacity, int storeCapacity, BackPressure backPressure, long maxWait, TimeUnit unit) {
+        this.ringBuffer = new ManyToOneRingBuffer(new UnsafeBuffer(
+                BufferUtil.allocateDirectAligned(ringCapacity + RingBufferDescriptor.TRAILER_LENGTH, 64)));
+        this.backPressure = backPressure;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.store = new MetricShard(storeCapacity);
+        this.runner = new AgentRunner(new BackoffIdleStrategy(), e -> log.error("Error in aggregator: {}", e.getMessage()), null, new Aggregator());
+        AgentRunner.startOnThread(runner);
+    }
+
+    public OfferResult offer(int clientId, int point, long latency) {
+        if (closed) {
+            return OfferResult.CLOSED;
+        }
+        // Counted before closed is read again, so either close() waits for this record or this producer sees it is closed
+        IN_FLIGHT.incrementAndGet(this);
+        try {
+            if (closed) {
+                return OfferResult.CLOSED;
+            }
+            int index = claim();
+            if (index < 0) {
+                droppedCount.incrementAndGet();
+                return OfferResult.DROPPED;
+            }
+            MutableDirectBuffer buffer = ringBuffer.buffer();
+            buffer.putInt(index + MetricBuffer.CLIENT_ID_OFFSET, clientId);
+            buffer.putInt(index + MetricBuffer.POINT_OFFSET, point);
+            buffer.putLong(index + MetricBuffer.LATENCY_OFFSET, latency);
+            ringBuffer.commit(index);
+            return OfferResult.ACCEPTED;
+        } finally {
+            IN_FLIGHT.decrementAndGet(this);
+        }
+    }
+
+    /**
+     * Offer the 16-byte record at offset of the buffer, for example a {@link MetricBuffer}
+     */
+    public OfferResult offer(DirectBuffer record, int offset) {
+        return offer(record.getInt(offset + MetricBuffer.CLIENT_ID_OFFSET), record.getInt(offset + MetricBuffer.POINT_OFFSET),
+                record.getLong(offset + MetricBuffer.LATENCY_OFFSET));
+    }
+
+    /**
+     * @return the latest latency the aggregator has recorded, or Long.MIN_VALUE if the key is not exists
+     */
+    public long getLatency(int clientId, int point) {
+        return store.latest(MetricAggregationMap.pack(clientId, point));
+    }
+
+    /**
+     * @return the summary of the key, or null if the key is not exists
+     */
+    public LatencyHistogram.Summary getLatencySummary(int clientId, int point) {
+        LatencyHistogram histogram = store.histogram(MetricAggregationMap.pack(clientId, point));
+        return histogram == null ? null : histogram.summary();
+    }
+
+    /**
+     * @return the number of records waiting in the ring
+     */
+    public int ringDepth() {
+        return ringBuffer.size() / FRAME_LENGTH;
+    }
+
+    /**
+     * @return the number of records the ring can hold
+     */
+    public int ringCapacity() {
+        return ringBuffer.capacity() / FRAME_LENGTH;
+    }
+
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    public long aggregatedCount() {
+        return aggregatedCount;
+    }
+
+    /**
+     * Reject the new records, wait for the producers in flight, drain the ring and stop the aggregator
+     */
+    @Override
+    public void close() {
+        closed = true;
+        runner.close();
+    }
+
+    private int claim() {
+        int index = ringBuffer.tryClaim(MSG_TYPE_METRIC, MetricBuffer.LENGTH);
+        if (index >= 0 || backPressure == BackPressure.DROP) {
+            return index;
+        }
+        BackoffIdleStrategy idleStrategy = null;
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (index < 0 && System.nanoTime() < deadline && !closed) {
+            if (idleStrategy == null) {
+                // Only allocated once the ring is full, the fast path stays allocation free
+                idleStrategy = new BackoffIdleStrategy();
+            }
+            idleStrategy.idle();
+            index = ringBuffer.tryClaim(MSG_TYPE_METRIC, MetricBuffer.LENGTH);
+        }
+        return index;
+    }
+
+    /**
+     * The only writer of the store
+     */
+    private final class Aggregator implements Agent, MessageHandler {
+
+        private int failedInBatch;
+        private long nextErrorLogNanos = System.nanoTime();
+
+        @Override
+        public int doWork() {
+            int read = ringBuffer.read(this, DRAIN_LIMIT);
+            int aggregated = read - failedInBatch;
+            failedInBatch = 0;
+            if (aggregated > 0) {
+                AGGREGATED.lazySet(MetricIngestPipeline.this, aggregatedCount + aggregated);
+            }
+            return read;
+        }
+
+        @Override
+        public void onMessage(int msgTypeId, MutableDirectBuffer buffer, int index, int length) {
+            long key = MetricAggregationMap.pack(buffer.getInt(index + MetricBuffer.CLIENT_ID_OFFSET), buffer.getInt(index + MetricBuffer.POINT_OFFSET));
+            try {
+                store.record(key, buffer.getLong(index + MetricBuffer.LATENCY_OFFSET), 0);
+            } catch (RuntimeException e) {
+                // The record is consumed from the ring all the same, it is counted as dropped instead of aggregated
+                failedInBatch++;
+                droppedCount.incrementAndGet();
+                long now = System.nanoTime();
+                if (now - nextErrorLogNanos >= 0) {
+                    nextErrorLogNanos = now + ERROR_LOG_INTERVAL_NANOS;
+                    log.error("Error in aggregator: {}, dropped records: {}", e.getMessage(), droppedCount.get());
+                }
+            }
+        }
+
+        @Override
+        public void onClose() {
+            // New producers are rejected by now, the ones in flight may still claim and commit, including a slot
+            // already claimed that stops the reads of the ring until it is committed
+            while (inFlight != 0 || ringBuffer.size() > 0) {
+                if (doWork() == 0) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public String roleName() {
+            return "metric-aggregator";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetricIngestPipeline{" +
+                "ringDepth=" + ringDepth() +
+                ", ringCapacity=" + ringCapacity() +
+                ", aggregated=" + aggregatedCount() +
+                ", dropped=" + droppedCount() +
+                '}';
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int producers = 4;
+        int recordsPerProducer = 2_000_000;
+        for (BackPressure backPressure : BackPressure.values()) {
+            try (MetricIngestPipeline pipeline = new MetricIngestPipeline(1 << 16, 1 << 12, backPressure, 10, TimeUnit.MILLISECONDS)) {
+                ExecutorService executorService = Executors.newFixedThreadPool(producers);
+                CountDownLatch done = new CountDownLatch(producers);
+                long start = System.nanoTime();
+                for (int p = 0; p < producers; p++) {
+                    executorService.execute(() -> {
+                        for (int i = 0; i < recordsPerProducer; i++) {
+                            pipeline.offer(i & 255, (i >>> 8) & 3, 1_000 + (i & 1_023));
+                        }
+                        done.countDown();
+                    });
+                }
+                int maxDepth = 0;
+                while (!done.await(1, TimeUnit.MILLISECONDS)) {
+                    maxDepth = Math.max(maxDepth, pipeline.ringDepth());
+                }
+                long offered = System.nanoTime() - start;
+                executorService.shutdown();
+                while (pipeline.ringDepth() > 0) {
+                    Thread.sleep(1);
+                }
+                log.info("{}: {} M offers/s, max ring depth: {} of {}, {}, clientId 1 point 0: {}", backPressure,
+                        String.format("%.1f", (double) producers * recordsPerProducer * 1_000 / offered), maxDepth,
+                        pipeline.ringCapacity(), pipeline, pipeline.getLatencySummary(1, 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 23:20
+ * Rebuild the aggregates from a capture file of back-to-back 16-byte {@link MetricBuffer} records
+ *
+ * <p>
+ * 1. The records are split into one contiguous partition per worker, the boundaries are whole records
+ * 2. Every worker memory-maps its partition in windows of at most 1GB, a single mapping can not exceed 2GB,
+ * and reads the records straight from the page cache into its own {@link MetricAccumulator}, with no copy and no shared writes
+ * 3. When every worker is done, the accumulators are merged in file order into one {@link MetricHistogramMap},
+ * so the latest latency of a key is the one of its last record in the file
+ * <p>
+ * A trailing partial record, left by a capture that was cut in the middle of a write, is ignored
+ */
+@Slf4j
+public class MetricLogReplay {
+
+    private static final long MAX_WINDOW = 1L << 30;
+
+    private MetricLogReplay() {
+    }
+
+    /**
+     * @param capacity the capacity of the merged map, twice the number of distinct keys in the file keeps it fast
+     */
+    public static MetricHistogramMap replay(Path file, int workers, int capacity) throws IOException, InterruptedException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        long size = Files.size(file);
+        long records = size / MetricBuffer.LENGTH;
+        if (size % MetricBuffer.LENGTH != 0) {
+            log.warn("Ignore the trailing {} bytes of {}, they are not a whole record", size % MetricBuffer.LENGTH, file);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Future<MetricAccumulator>> partitions = new ArrayList<>(workers);
+            long perWorker = (records + workers - 1) / workers;
+            for (int w = 0; w < workers; w++) {
+                long from = Math.min(records, w * perWorker) * MetricBuffer.LENGTH;
+                long to = Math.min(records, (w + 1) * perWorker) * MetricBuffer.LENGTH;
+                partitions.add(executorService.submit(() -> replayPartition(channel, from, to)));
+            }
+
+            MetricHistogramMap merged = new MetricHistogramMap(capacity);
+            for (Future<MetricAccumulator> partition : partitions) {
+                merged.merge(partition.get());
+            }
+            return merged;
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to replay " + file, e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static MetricAccumulator replayPartition(FileChannel channel, long from, long to) throws IOException {
+        MetricAccumulator accumulator = new MetricAccumulator();
+        UnsafeBuffer window = new UnsafeBuffer();
+        for (long position = from; position < to; position += MAX_WINDOW) {
+            long length = Math.min(MAX_WINDOW, to - position);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            try {
+                window.wrap(mapped);
+                for (int offset = 0; offset < length; offset += MetricBuffer.LENGTH) {
+                    long key = MetricAggregationMap.pack(window.getInt(offset + MetricBuffer.CLIENT_ID_OFFSET),
+                            window.getInt(offset + MetricBuffer.POINT_OFFSET));
+                    accumulator.record(key, window.getLong(offset + MetricBuffer.LATENCY_OFFSET));
+                }
+            } finally {
+                IoUtil.unmap(mapped);
+            }
+        }
+        return accumulator;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path file = Files.createTempFile("metric-capture", ".bin");
+        int records = 16_000_000;
+        try {
+            // A 256MB capture of 1000 clients and 8 points
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * MetricBuffer.LENGTH);
+                UnsafeBuffer writer = new UnsafeBuffer(mapped);
+                Random random = new Random(42);
+                for (int i = 0; i < records; i++) {
+                    int offset = i * MetricBuffer.LENGTH;
+                    writer.putInt(offset + MetricBuffer.CLIENT_ID_OFFSET, random.nextInt(1_000));
+                    writer.putInt(offset + MetricBuffer.POINT_OFFSET, random.nextInt(8));
+                    writer.putLong(offset + MetricBuffer.LATENCY_OFFSET, 1_000 + random.nextInt(1_000_000));
+                }
+                IoUtil.unmap(mapped);
+            }
+
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            for (int workers : new int[]{1, threads}) {
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    MetricHistogramMap aggregates = replay(file, workers, 1 << 14);
+                    long elapsed = System.nanoTime() - start;
+                    log.info("workers: {}, keys: {}, {} M records/s, {} MB/s, clientId 7 point 3: {}", workers, aggregates.size(),
+                            String.format("%.1f", records * 1_000.0 / elapsed),
+                            String.format("%.0f", (double) records * MetricBuffer.LENGTH * 1_000 / elapsed),
+                            aggregates.summary(MetricAggregationMap.pack(7, 3)));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package unsafeBuffer;
+
+import org.agrona.collections.Hashing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * @author lzn
+ * @date 2026/10/18 00:20
+ * A single-writer table of latency histograms per packed (clientId, point) key, that any thread can read while it is written
+ *
+ * <p>
+ * 1. Only one thread records, so a new key takes its slot without a CAS and an existing key is recorded with ordered stores
+ * 2. A new slot is published by writing its key last, a reader only looks at the slots whose key it can see
+ * 3. The table starts at twice the expected number of keys and doubles once it is half full, like {@link MetricAggregationMap}.
+ * The owner copies the slots into the larger table on its own and publishes it with one volatile store, the histograms are
+ * moved, not copied, so a reader of the old table still sees their counts, only the latest latency stops there
+ * 4. A reader that works on several slots takes one {@link Table} with {@link #table()}, so its slot numbers stay valid
+ * <p>
+ * The key {@link MetricAggregationMap#EMPTY_KEY} (clientId Integer.MIN_VALUE and point 0) marks the free slots and can not be stored.
+ * The epoch recorded next to the latest latency is chosen by the caller, it tells which of several shards has the newest value
+ */
+final class MetricShard {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle HISTOGRAMS = MethodHandles.arrayElementVarHandle(LatencyHistogram[].class);
+    private static final int MAX_LENGTH = 1 << 30;
+
+    private volatile Table table;
+    // Written by the owner thread only
+    private int size;
+
+    /**
+     * @param capacity the expected number of keys, the shard grows past it
+     */
+    MetricShard(int capacity) {
+        if (capacity <= 0 || capacity > MAX_LENGTH / 2) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^29]: " + capacity);
+        }
+        table = new Table(1 << -Integer.numberOfLeadingZeros(capacity * 2 - 1));
+    }
+
+    /**
+     * Called by the owner thread only
+     *
+     * @throws IllegalArgumentException if key is {@link MetricAggregationMap#EMPTY_KEY}
+     * @throws IllegalStateException    if the shard has reached its largest table and every slot is taken
+     */
+    void record(long key, long latency, long epoch) {
+        if (key == MetricAggregationMap.EMPTY_KEY) {
+            throw new IllegalArgumentException("the key " + key + " is reserved for the free slots");
+        }
+        Table t = table;
+        int mask = t.mask;
+        int index = Hashing.hash(key, mask);
+        for (int probe = 0; probe <= mask; probe++) {
+            long current = t.keys[index];
+            if (current == key) {
+                t.histograms[index].recordSingleWriter(latency);
+                LONGS.setRelease(t.latest, index, latency);
+                LONGS.setRelease(t.latestEpochs, index, epoch);
+                return;
+            }
+            if (current == MetricAggregationMap.EMPTY_KEY) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.recordSingleWriter(latency);
+                HISTOGRAMS.setRelease(t.histograms, index, histogram);
+                LONGS.setRelease(t.latest, index, latency);
+                LONGS.setRelease(t.latestEpochs, index, epoch);
+                // Publish the key last, the readers only look at the slots whose key they can see
+                LONGS.setRelease(t.keys, index, key);
+                if (++size > t.keys.length >>> 1 && t.keys.length < MAX_LENGTH) {
+                    resize(t);
+                }
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        throw new IllegalStateException("the shard is full, capacity: " + t.keys.length);
+    }
+
+    /**
+     * Copy every slot into a table twice as large, only the owner writes, so nobody else has to wait or help
+     */
+    private void resize(Table t) {
+        Table bigger = new Table(t.keys.length << 1);
+        for (int i = 0; i < t.keys.length; i++) {
+            long key = t.keys[i];
+            if (key == MetricAggregationMap.EMPTY_KEY) {
+                continue;
+            }
+            int index = Hashing.hash(key, bigger.mask);
+            while (bigger.keys[index] != MetricAggregationMap.EMPTY_KEY) {
+                index = (index + 1) & bigger.mask;
+            }
+            bigger.keys[index] = key;
+            bigger.histograms[index] = t.histograms[i];
+            bigger.latest[index] = t.latest[i];
+            bigger.latestEpochs[index] = t.latestEpochs[i];
+        }
+        // The volatile store publishes every plain write into the new table
+        table = bigger;
+    }
+
+    /**
+     * @return the current table, a reader keeps it for all the slots it reads together
+     */
+    Table table() {
+        return table;
+    }
+
+    /**
+     * @return the histogram of key, or null if the key is not exists
+     */
+    LatencyHistogram histogram(long key) {
+        Table t = table;
+        int index = t.find(key);
+        return index < 0 ? null : t.histogramAt(index);
+    }
+
+    /**
+     * @return the latest latency of key, or Long.MIN_VALUE if the key is not exists
+     */
+    long latest(long key) {
+        Table t = table;
+        int index = t.find(key);
+        return index < 0 ? MetricAccumulator.MISSING_VALUE : t.latestAt(index);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The slots of one size, never resized in place, a larger one replaces it
+     */
+    static final class Table {
+        private final long[] keys;
+        private final LatencyHistogram[] histograms;
+        private final long[] latest;
+        private final long[] latestEpochs;
+        private final int mask;
+
+        Table(int length) {
+            keys = new long[length];
+            histograms = new LatencyHistogram[length];
+            latest = new long[length];
+            latestEpochs = new long[length];
+            mask = length - 1;
+            Arrays.fill(keys, MetricAggregationMap.EMPTY_KEY);
+        }
+
+        /**
+         * @return the slot of key, or -1 if the key is not exists
+         */
+        int find(long key) {
+            if (key == MetricAggregationMap.EMPTY_KEY) {
+                return -1;
+            }
+            int index = Hashing.hash(key, mask);
+            for (int probe = 0; probe <= mask; probe++) {
+                long current = (long) LONGS.getAcquire(keys, index);
+                if (current == key) {
+                    return index;
+                }
+                if (current == MetricAggregationMap.EMPTY_KEY) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the key of the slot, or {@link MetricAggregationMap#EMPTY_KEY} if the slot is free
+         */
+        long keyAt(int index) {
+            return (long) LONGS.getAcquire(keys, index);
+        }
+
+        LatencyHistogram histogramAt(int index) {
+            return (LatencyHistogram) HISTOGRAMS.getAcquire(histograms, index);
+        }
+
+        long latestAt(int index) {
+            return (long) LONGS.getAcquire(latest, index);
+        }
+
+        long latestEpochAt(int index) {
+            return (long) LONGS.getAcquire(latestEpochs, index);
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+    }
+}
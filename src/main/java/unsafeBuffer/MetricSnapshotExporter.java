@@ -0,0 +1,339 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * @author lzn
+ * @date 2026/10/18 01:30
+ * Export a copy of the aggregates of a {@link MetricHistogramMap} into a compact binary layout, while the ingest goes on
+ *
+ * <p>
+ * Layout, little endian:
+ * 1. Header: magic (int), version (int), entry count (int), entry length (int), taken at in epoch millis (long)
+ * 2. Entries: clientId (int), point (int), latest, count, sum, min, max, p50, p90, p99, p99.9 (long each)
+ * 3. A reader skips entry length bytes per entry, so a later version can append fields without breaking it,
+ * any version is read as long as its entries are at least as long as the entries of version 1
+ * <p>
+ * 1. The keys are read one after another with the same lock-free reads as the queries, the ingest threads never wait,
+ * every entry is consistent on its own: its min and max cover all its counted records
+ * 2. The cost is one pass over the slots plus one pass over the counters of every key, and the exporter reuses its scratch
+ * counters and its staging buffer, sized by the number of keys plus a quarter, so a periodic export only allocates a summary per key
+ * <p>
+ * Not thread-safe, use one exporter per reporting thread
+ */
+@Slf4j
+public class MetricSnapshotExporter {
+
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final int MAGIC = 0x4D534E50;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 24;
+    public static final int ENTRY_LENGTH = 2 * Integer.BYTES + 9 * Long.BYTES;
+
+    private static final int COUNT_OFFSET = 8;
+    private static final int ENTRY_LENGTH_OFFSET = 12;
+    private static final int TAKEN_AT_OFFSET = 16;
+    // The most keys a snapshot can hold in a buffer of 2GB
+    private static final int MAX_KEYS = (Integer.MAX_VALUE - HEADER_LENGTH) / ENTRY_LENGTH;
+
+    private final MetricHistogramMap source;
+    private final long[] scratch = new long[LatencyHistogram.BUCKETS];
+    private UnsafeBuffer staging;
+
+    public MetricSnapshotExporter(MetricHistogramMap source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the bytes a snapshot of that many keys takes
+     * @throws IllegalArgumentException if keys is negative or the snapshot would not fit in a buffer of 2GB
+     */
+    public static int lengthFor(int keys) {
+        long length = HEADER_LENGTH + (long) keys * ENTRY_LENGTH;
+        if (keys < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a snapshot of " + keys + " keys takes " + length + " bytes, more than 2GB");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Write the snapshot at offset of the buffer, a buffer of {@code lengthFor(source.size())} bytes fits
+     * the keys there are now, the keys added meanwhile need some headroom
+     *
+     * @return the number of bytes written
+     * @throws IllegalStateException if the buffer is too small for the keys
+     */
+    public int exportTo(MutableDirectBuffer buffer, int offset) {
+        int length = tryExportTo(buffer, offset);
+        if (length < 0) {
+            throw new IllegalStateException("the buffer is too small, it needs at least " + lengthFor(source.size()) + " bytes");
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of bytes written, or -1 if the buffer is too small for the keys
+     */
+    private int tryExportTo(MutableDirectBuffer buffer, int offset) {
+        int limit = buffer.capacity();
+        int[] position = {offset + HEADER_LENGTH};
+        int[] count = {0};
+        boolean[] full = {false};
+        source.forEach((key, histogram) -> {
+            if (full[0] || limit - position[0] < ENTRY_LENGTH) {
+                full[0] = true;
+                return;
+            }
+            writeEntry(buffer, position[0], key, histogram);
+            position[0] += ENTRY_LENGTH;
+            count[0]++;
+        });
+        if (full[0]) {
+            return -1;
+        }
+        buffer.putInt(offset, MAGIC, ORDER);
+        buffer.putInt(offset + 4, VERSION, ORDER);
+        buffer.putInt(offset + COUNT_OFFSET, count[0], ORDER);
+        buffer.putInt(offset + ENTRY_LENGTH_OFFSET, ENTRY_LENGTH, ORDER);
+        buffer.putLong(offset + TAKEN_AT_OFFSET, System.currentTimeMillis(), ORDER);
+        return position[0] - offset;
+    }
+
+    /**
+     * Write the snapshot to a temporary file next to the target and move it over the target,
+     * so a reader of the file never sees a torn snapshot
+     */
+    public void exportTo(Path file) throws IOException {
+        int length;
+        while (true) {
+            int required = stagingLength(source.size());
+            if (staging == null || staging.capacity() < required) {
+                // Reallocated only when the map has outgrown the headroom since the last export
+                staging = new UnsafeBuffer(BufferUtil.allocateDirectAligned(required, 64));
+            }
+            length = tryExportTo(staging, 0);
+            if (length >= 0) {
+                break;
+            }
+            if (staging.capacity() >= lengthFor(MAX_KEYS)) {
+                throw new IllegalStateException("the map has more keys than a snapshot of 2GB holds: " + source.size());
+            }
+            // More keys were added during the export than the headroom covers, size it again
+        }
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = staging.byteBuffer().duplicate();
+                bytes.clear().limit(length);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the length of a staging buffer for that many keys, plus a quarter for the keys added while it is exported
+     */
+    private static int stagingLength(int keys) {
+        return lengthFor((int) Math.min(keys + (keys >>> 2) + 16L, MAX_KEYS));
+    }
+
+    /**
+     * Visit the entries of a snapshot with one reused flyweight
+     *
+     * @return the number of entries
+     * @throws IllegalArgumentException if the buffer does not hold a snapshot, its entries are shorter than the known fields
+     *                                  or its entries do not fit in the buffer
+     */
+    public static int forEach(DirectBuffer buffer, int offset, Consumer<Entry> consumer) {
+        if (offset < 0 || buffer.capacity() - offset < HEADER_LENGTH || buffer.getInt(offset, ORDER) != MAGIC) {
+            throw new IllegalArgumentException("not a metric snapshot");
+        }
+        int count = buffer.getInt(offset + COUNT_OFFSET, ORDER);
+        int entryLength = buffer.getInt(offset + ENTRY_LENGTH_OFFSET, ORDER);
+        // A newer version may have appended fields, only the fields this version knows have to be there
+        if (entryLength < ENTRY_LENGTH) {
+            throw new IllegalArgumentException("entry length " + entryLength + " of version " + buffer.getInt(offset + 4, ORDER)
+                    + " is shorter than " + ENTRY_LENGTH);
+        }
+        if (count < 0 || HEADER_LENGTH + (long) count * entryLength > buffer.capacity() - offset) {
+            throw new IllegalArgumentException(count + " entries of " + entryLength + " bytes do not fit in "
+                    + (buffer.capacity() - offset) + " bytes");
+        }
+        Entry entry = new Entry();
+        for (int i = 0; i < count; i++) {
+            entry.wrap(buffer, offset + HEADER_LENGTH + i * entryLength);
+            consumer.accept(entry);
+        }
+        return count;
+    }
+
+    /**
+     * @return the time the snapshot was taken, in epoch millis
+     */
+    public static long takenAt(DirectBuffer buffer, int offset) {
+        return buffer.getLong(offset + TAKEN_AT_OFFSET, ORDER);
+    }
+
+    private void writeEntry(MutableDirectBuffer buffer, int position, long key, LatencyHistogram histogram) {
+        Arrays.fill(scratch, 0);
+        histogram.addCountsTo(scratch);
+        long sum = histogram.sum();
+        LatencyHistogram.Summary summary = LatencyHistogram.summarize(scratch, sum, histogram.min(), histogram.max());
+        buffer.putInt(position, MetricAggregationMap.clientId(key), ORDER);
+        buffer.putInt(position + 4, MetricAggregationMap.point(key), ORDER);
+        buffer.putLong(position + 8, source.latest(key), ORDER);
+        buffer.putLong(position + 16, summary.count(), ORDER);
+        buffer.putLong(position + 24, sum, ORDER);
+        buffer.putLong(position + 32, summary.min(), ORDER);
+        buffer.putLong(position + 40, summary.max(), ORDER);
+        buffer.putLong(position + 48, summary.p50(), ORDER);
+        buffer.putLong(position + 56, summary.p90(), ORDER);
+        buffer.putLong(position + 64, summary.p99(), ORDER);
+        buffer.putLong(position + 72, summary.p999(), ORDER);
+    }
+
+    /**
+     * A flyweight over one entry of a snapshot
+     */
+    public static final class Entry {
+        private DirectBuffer buffer;
+        private int offset;
+
+        void wrap(DirectBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        public int clientId() {
+            return buffer.getInt(offset, ORDER);
+        }
+
+        public int point() {
+            return buffer.getInt(offset + 4, ORDER);
+        }
+
+        /**
+         * @return the latest latency, or Long.MIN_VALUE if it was not published yet
+         */
+        public long latest() {
+            return buffer.getLong(offset + 8, ORDER);
+        }
+
+        public long count() {
+            return buffer.getLong(offset + 16, ORDER);
+        }
+
+        public long sum() {
+            return buffer.getLong(offset + 24, ORDER);
+        }
+
+        public long min() {
+            return buffer.getLong(offset + 32, ORDER);
+        }
+
+        public long max() {
+            return buffer.getLong(offset + 40, ORDER);
+        }
+
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) sum() / count;
+        }
+
+        public long p50() {
+            return buffer.getLong(offset + 48, ORDER);
+        }
+
+        public long p90() {
+            return buffer.getLong(offset + 56, ORDER);
+        }
+
+        public long p99() {
+            return buffer.getLong(offset + 64, ORDER);
+        }
+
+        public long p999() {
+            return buffer.getLong(offset + 72, ORDER);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "clientId=" + clientId() +
+                    ", point=" + point() +
+                    ", latest=" + latest() +
+                    ", count=" + count() +
+                    ", min=" + min() +
+                    ", max=" + max() +
+                    ", p50=" + p50() +
+                    ", p99=" + p99() +
+                    '}';
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        MetricHistogramMap aggregates = new MetricHistogramMap(1 << 14);
+        CountDownLatch stop = new CountDownLatch(1);
+        Thread ingest = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (stop.getCount() > 0) {
+                aggregates.record(MetricAggregationMap.pack(random.nextInt(1_000), random.nextInt(8)), 1_000 + random.nextInt(1_000_000));
+            }
+        });
+        ingest.start();
+        Thread.sleep(200);
+
+        // Export every 100ms into the same buffer while the ingest thread keeps recording
+        MetricSnapshotExporter exporter = new MetricSnapshotExporter(aggregates);
+        // The ingest thread records at most 1000 x 8 keys
+        UnsafeBuffer buffer = new UnsafeBuffer(BufferUtil.allocateDirectAligned(lengthFor(8_000), 64));
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            int length = exporter.exportTo(buffer, 0);
+            long elapsed = System.nanoTime() - start;
+            long[] records = {0};
+            int entries = forEach(buffer, 0, entry -> records[0] += entry.count());
+            log.info("export {}: {} keys, {} bytes, {} records, {} us", i, entries, length, records[0], elapsed / 1_000);
+            Thread.sleep(100);
+        }
+
+        Path file = Files.createTempFile("metric-snapshot", ".bin");
+        try {
+            exporter.exportTo(file);
+            UnsafeBuffer fromFile = new UnsafeBuffer(Files.readAllBytes(file));
+            forEach(fromFile, 0, entry -> {
+                if (entry.clientId() == 7 && entry.point() == 3) {
+                    log.info("from the file: {}", entry);
+                }
+            });
+        } finally {
+            Files.deleteIfExists(file);
+            stop.countDown();
+            ingest.join();
+        }
+    }
+}
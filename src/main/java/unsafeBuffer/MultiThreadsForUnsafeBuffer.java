@@ -1,21 +1,38 @@
 package unsafeBuffer;
 
 import lombok.extern.slf4j.Slf4j;
+import org.agrona.DirectBuffer;
 
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author lzn
  * @date 2023/10/08 14:54
- * Multi-threads operation of HashMap with UnsafeBuffer of Agrona library as key
+ * Multi-threads aggregation of the metrics encoded by UnsafeBuffer of Agrona library
  *
  * Key point:
  * 1. Instead of create a new key of map every time for aggregating and retrieving, use thread local to reuse it
- * 2. Don't forget to remove after using thread local object, especially in multithreaded env as it might cause memory leak
+ * 2. The flyweight is only a view over the caller's bytes, so it is kept for the lifetime of the thread instead of removed
+ * after every call, removing it would allocate a new buffer on the next call
+ * 3. The map key is the (clientId, point) pair packed in a primitive long, see {@link MetricAggregationMap},
+ * so aggregating a record allocates nothing: no key buffer, no boxed Long and no map node. The map grows like the
+ * ConcurrentHashMap it replaced, a record that can not be aggregated is counted in {@link #getDroppedCount()}
+ * 4. A buffer of back-to-back records is aggregated in place by {@link #aggregateBatch(DirectBuffer, int, int)}
+ * 5. When many threads record the same hot keys, {@link ShardedMetricAggregator} gives every thread its own shard
+ * and serves the reads from a snapshot that is at most a configured staleness old
+ * 6. Every key accumulates a {@link LatencyHistogram} of all its latencies, the latest latency is still kept for {@link #getLatency(byte[])}
+ * 7. Framed batches of the {@link MetricCodec} are aggregated in place by {@link #aggregateFrames(DirectBuffer, int)}
+ * 8. The histograms cover all time, {@link WindowedMetricAggregator} keeps rolling views such as the last 1s, 10s and 1m
+ * 9. Every aggregated record also feeds a {@link TopKTracker}, so the busiest and the slowest keys are answered
+ * from a bounded set of candidates instead of a scan of all the keys. Only a record of 1 ms or more can make its key
+ * a slow candidate, the candidates decay with a 10 s half-life and the slowest are ranked by the p99 of their histogram
  */
 @Slf4j
 public class MultiThreadsForUnsafeBuffer {
@@ -29,39 +46,176 @@ public class MultiThreadsForUnsafeBuffer {
         return INSTANCE;
     }
 
-    private final Map<MetricBuffer, Long> latencyMap = new ConcurrentHashMap<>();
-    private final ThreadLocal<MetricBuffer> reusableKeyBuffer = ThreadLocal.withInitial(() -> new MetricBuffer(ByteBuffer.allocate(16)));
-    private final ThreadLocal<MetricBuffer> reusableRetrieveBuffer = ThreadLocal.withInitial(() -> new MetricBuffer(ByteBuffer.allocate(16)));
+    // The expected number of keys, the map grows past it
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long ERROR_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int TOP_K = 16;
+    private static final int TOP_K_SAMPLE_INTERVAL = 16;
+    // The latencies are in nanoseconds, a record under 1 ms never makes its key a slow candidate.
+    // A constant expression, INSTANCE is created before the other static fields are initialized
+    private static final long SLOW_THRESHOLD_NANOS = 1_000_000L;
+    private static final long TOP_K_HALF_LIFE_SECONDS = 10;
+
+    private final MetricHistogramMap latencyMap = new MetricHistogramMap(DEFAULT_CAPACITY);
+    private final TopKTracker topK = new TopKTracker(latencyMap, TOP_K, TOP_K_SAMPLE_INTERVAL, SLOW_THRESHOLD_NANOS,
+            TOP_K_HALF_LIFE_SECONDS, TimeUnit.SECONDS);
+    private final LongAdder droppedCount = new LongAdder();
+    private final AtomicLong nextErrorLogNanos = new AtomicLong(System.nanoTime());
+    private final ThreadLocal<MetricBuffer> reusableKeyBuffer = ThreadLocal.withInitial(MetricBuffer::new);
+    private final ThreadLocal<MetricBuffer> reusableRetrieveBuffer = ThreadLocal.withInitial(MetricBuffer::new);
+    private final ThreadLocal<MetricBuffer> reusableBatchBuffer = ThreadLocal.withInitial(MetricBuffer::new);
+    private final ThreadLocal<MetricCodec.BatchDecoder> reusableDecoder = ThreadLocal.withInitial(MetricCodec.BatchDecoder::new);
+    private final MetricCodec.RecordHandler frameHandler = new MetricCodec.RecordHandler() {
+        @Override
+        public void onLatency(MetricCodec.LatencyRecord record) {
+            record(record.key(), record.latency());
+        }
+
+        @Override
+        public void onTimestamp(MetricCodec.TimestampRecord record) {
+            record(record.key(), record.latency());
+        }
+    };
 
     public void aggregateMetrics(byte[] bytes) {
         try {
             MetricBuffer keyBuffer = reusableKeyBuffer.get();
             keyBuffer.wrap(bytes);
-            log.info("contains: {},clientId: {}, point: {}, latency: {}",latencyMap.containsKey(keyBuffer), keyBuffer.getClientId(), keyBuffer.getPoint(), keyBuffer.getLatency());
-            latencyMap.put(keyBuffer, keyBuffer.getLatency());
+            record(MetricAggregationMap.pack(keyBuffer.getClientId(), keyBuffer.getPoint()), keyBuffer.getLatency());
         } catch (Exception e) {
-            log.error("Error in aggregateMetrics: {}", e.getMessage());
-        } finally {
-            reusableKeyBuffer.remove();
+            drop("aggregateMetrics", e);
         }
     }
 
+    private void drop(String operation, Exception e) {
+        droppedCount.increment();
+        // At most one line per interval, a stream of bad records must not flood the log
+        long now = System.nanoTime();
+        long next = nextErrorLogNanos.get();
+        if (now - next >= 0 && nextErrorLogNanos.compareAndSet(next, now + ERROR_LOG_INTERVAL_NANOS)) {
+            log.error("Error in {}: {}, dropped records: {}", operation, e.getMessage(), droppedCount.sum());
+        }
+    }
+
+    /**
+     * @return the number of records aggregateMetrics and aggregateBatch could not aggregate
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Aggregate the packed 16-byte records of the buffer in place, the flyweight is moved from record to record.
+     * A record that can not be aggregated, such as one of a reserved key, is counted in {@link #getDroppedCount()}
+     * like in aggregateMetrics and the rest of the batch goes on
+     *
+     * @return the number of records aggregated
+     * @throws IllegalArgumentException if the range is not a whole number of records inside the buffer, nothing is aggregated then
+     */
+    public int aggregateBatch(DirectBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || length > buffer.capacity() - offset) {
+            throw new IllegalArgumentException("range [" + offset + ", " + offset + " + " + length + ") is outside of the buffer of "
+                    + buffer.capacity() + " bytes");
+        }
+        if (length % MetricBuffer.LENGTH != 0) {
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + MetricBuffer.LENGTH);
+        }
+        MetricBuffer record = reusableBatchBuffer.get();
+        int end = offset + length;
+        int aggregated = 0;
+        for (int position = offset; position < end; position += MetricBuffer.LENGTH) {
+            try {
+                record.wrap(buffer, position, MetricBuffer.LENGTH);
+                record(MetricAggregationMap.pack(record.getClientId(), record.getPoint()), record.getLatency());
+                aggregated++;
+            } catch (RuntimeException e) {
+                drop("aggregateBatch", e);
+            }
+        }
+        return aggregated;
+    }
+
+    /**
+     * Aggregate the latencies of a framed batch in place, the records without a latency are skipped
+     *
+     * @return the number of records in the batch
+     */
+    public int aggregateFrames(DirectBuffer buffer, int offset) {
+        return reusableDecoder.get().decode(buffer, offset, frameHandler);
+    }
+
+    private void record(long key, long latency) {
+        latencyMap.record(key, latency);
+        topK.offer(key, latency);
+    }
+
+    /**
+     * @return the latency of the (clientId, point) of the record, or null if the key is not exists
+     */
     public Long getLatency(byte[] bytes) {
         MetricBuffer keyBuffer = reusableRetrieveBuffer.get();
         Long latency = 0L;
         try {
             keyBuffer.wrap(bytes);
-            log.info("get key clientId: {}, point: {}, latency: {}", keyBuffer.getClientId(), keyBuffer.getPoint(), keyBuffer.getLatency());
-            latency = latencyMap.get(keyBuffer);
+            long value = getLatency(keyBuffer.getClientId(), keyBuffer.getPoint());
+            latency = value == latencyMap.missingValue() ? null : value;
         } catch (Exception e) {
             log.error("Error in getLatency: {}", e.getMessage());
-        } finally {
-            reusableRetrieveBuffer.remove();
         }
         return latency;
     }
 
+    /**
+     * Allocation-free lookup
+     *
+     * @return the latency, or Long.MIN_VALUE if the key is not exists
+     */
+    public long getLatency(int clientId, int point) {
+        return latencyMap.latest(MetricAggregationMap.pack(clientId, point));
+    }
+
+    /**
+     * @return count, min, max, mean and percentiles of all the latencies of the key, or null if the key is not exists
+     */
+    public LatencyHistogram.Summary getLatencySummary(int clientId, int point) {
+        return latencyMap.summary(MetricAggregationMap.pack(clientId, point));
+    }
+
+    /**
+     * @return a copy of the aggregates keyed by new 16-byte buffers, it allocates for every key and is meant for reporting only,
+     * a periodic export is cheaper with {@link MetricSnapshotExporter} over {@link #getHistogramMap()}
+     */
     public Map<MetricBuffer, Long> getLatencyMap() {
+        Map<MetricBuffer, Long> copy = new HashMap<>();
+        latencyMap.latestValues().forEach((key, latency) -> {
+            MetricBuffer buffer = new MetricBuffer(new byte[16]);
+            buffer.putInt(0, MetricAggregationMap.clientId(key));
+            buffer.putInt(4, MetricAggregationMap.point(key));
+            buffer.putLong(8, latency);
+            copy.put(buffer, latency);
+        });
+        return copy;
+    }
+
+    /**
+     * @return up to k (at most 16) keys with the highest estimated record count, the busiest first
+     */
+    public List<TopKTracker.HeavyHitter> getBusiest(int k) {
+        return topK.busiest(k);
+    }
+
+    /**
+     * @return up to k (at most 16) recently slow keys with the highest p99 latency of 1 ms or more, the slowest first
+     */
+    public List<TopKTracker.HeavyHitter> getSlowest(int k) {
+        return topK.slowest(k);
+    }
+
+    public MetricAggregationMap getAggregationMap() {
+        return latencyMap.latestValues();
+    }
+
+    public MetricHistogramMap getHistogramMap() {
         return latencyMap;
     }
 
@@ -107,5 +261,27 @@ public class MultiThreadsForUnsafeBuffer {
         }
         clForExecution.await();
         log.info("Time cost: {} milliseconds", Duration.between(startTime, LocalDateTime.now()).getNano() / 1000 / 1000);
+
+        // The steady state ingest allocates nothing, measured on this thread once the thread local and the JIT are warm
+        byte[] record = new byte[16];
+        MetricBuffer writer = new MetricBuffer(record);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int records = 1_000_000;
+        for (int round = 0; round < 3; round++) {
+            long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                writer.putInt(0, i & 1_023);
+                writer.putInt(4, i & 7);
+                writer.putLong(8, i);
+                unsafeBufferTest.aggregateMetrics(record);
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info("ingested {} records in {} ms, allocated {} bytes", records, elapsed / 1_000_000,
+                    threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore);
+        }
+        log.info("clientId: 5, point: 5, {}", unsafeBufferTest.getLatencySummary(5, 5));
+        log.info("busiest: {}", unsafeBufferTest.getBusiest(3));
+        log.info("slowest: {}", unsafeBufferTest.getSlowest(3));
     }
 }
@@ -0,0 +1,559 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Hashing;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.collections.Long2ObjectHashMap;
+
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lzn
+ * @date 2026/10/17 23:45
+ * The sharded mode of {@link MultiThreadsForUnsafeBuffer}: every ingest thread aggregates into its own shard,
+ * and the readers see a snapshot that a merger thread rebuilds from all the shards
+ *
+ * <p>
+ * 1. A {@link MetricShard} has exactly one writer, its thread, so recording is plain array work with ordered stores, no CAS and no lock,
+ * the threads never write the same cache lines even when they all record the same hot key
+ * 2. The shards are cumulative, the merger reads them while their writers keep going and folds every key of every shard
+ * into the back buffer of a double-buffered snapshot, then publishes it with a volatile swap
+ * 3. A snapshot row holds the latest latency and the precomputed summary of the key, so a read is one probe and no lock,
+ * a reader retries if the merger starts to rebuild the very snapshot it is reading
+ * 4. The merger runs every half of the maximum staleness, so a published value is at most maxStaleness old
+ * 5. The shard of a finished thread is folded into the retired aggregates of the merger and dropped,
+ * so a pool that replaces its threads does not grow the shards nor the cost of a merge
+ * 6. A shard grows on its own once it is half full, and the snapshot doubles when the shards hold more keys than it does,
+ * a merge that fails all the same is counted in {@link #getFailedMergeCount()} and the readers keep the previous snapshot
+ * <p>
+ * The latest latency of a key that several threads record within one merge period is the latest of one of them,
+ * there is no order between the records of different threads anyway
+ */
+@Slf4j
+public class ShardedMetricAggregator implements AutoCloseable {
+
+    private static final long ERROR_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long maxStalenessNanos;
+    private final List<Registration> shards = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<MetricShard> localShard;
+    private final ThreadLocal<MetricBuffer> reusableKeyBuffer = ThreadLocal.withInitial(MetricBuffer::new);
+    private final ScheduledExecutorService merger;
+    private final LongAdder droppedCount = new LongAdder();
+    private final AtomicLong nextErrorLogNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong failedMergeCount = new AtomicLong();
+
+    // Used by the merger thread only
+    private final long[] scratch = new long[LatencyHistogram.BUCKETS];
+    private final Retired retired = new Retired();
+    private Snapshot back;
+    private volatile Snapshot published;
+    // Tells the writers which merge period they record in, to pick the latest latency among the shards
+    private volatile long epoch;
+
+    public ShardedMetricAggregator(int capacity, long maxStaleness, TimeUnit unit) {
+        if (maxStaleness <= 0) {
+            throw new IllegalArgumentException("maxStaleness must be positive: " + maxStaleness);
+        }
+        this.maxStalenessNanos = unit.toNanos(maxStaleness);
+        this.published = new Snapshot(capacity);
+        this.back = new Snapshot(capacity);
+        this.localShard = ThreadLocal.withInitial(() -> {
+            MetricShard shard = new MetricShard(capacity);
+            shards.add(new Registration(Thread.currentThread(), shard));
+            return shard;
+        });
+        this.merger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sharded-metric-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, maxStalenessNanos / 2);
+        merger.scheduleAtFixedRate(this::mergeQuietly, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    public void aggregateMetrics(byte[] bytes) {
+        try {
+            MetricBuffer keyBuffer = reusableKeyBuffer.get();
+            keyBuffer.wrap(bytes);
+            record(keyBuffer.getClientId(), keyBuffer.getPoint(), keyBuffer.getLatency());
+        } catch (Exception e) {
+            drop("aggregateMetrics", e);
+        }
+    }
+
+    private void drop(String operation, Exception e) {
+        droppedCount.increment();
+        // At most one line per interval, a stream of bad records must not flood the log
+        long now = System.nanoTime();
+        long next = nextErrorLogNanos.get();
+        if (now - next >= 0 && nextErrorLogNanos.compareAndSet(next, now + ERROR_LOG_INTERVAL_NANOS)) {
+            log.error("Error in {}: {}, dropped records: {}", operation, e.getMessage(), droppedCount.sum());
+        }
+    }
+
+    /**
+     * @return the number of records aggregateMetrics and aggregateBatch could not aggregate
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Aggregate the packed 16-byte records of the buffer in place, a record that can not be aggregated,
+     * such as one of a reserved key, is counted in {@link #getDroppedCount()} and the rest of the batch goes on
+     *
+     * @return the number of records aggregated
+     * @throws IllegalArgumentException if the range is not a whole number of records inside the buffer, nothing is aggregated then
+     */
+    public int aggregateBatch(DirectBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || length > buffer.capacity() - offset) {
+            throw new IllegalArgumentException("range [" + offset + ", " + offset + " + " + length + ") is outside of the buffer of "
+                    + buffer.capacity() + " bytes");
+        }
+        if (length % MetricBuffer.LENGTH != 0) {
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + MetricBuffer.LENGTH);
+        }
+        MetricShard shard = localShard.get();
+        long currentEpoch = epoch;
+        int end = offset + length;
+        int aggregated = 0;
+        for (int position = offset; position < end; position += MetricBuffer.LENGTH) {
+            try {
+                shard.record(MetricAggregationMap.pack(buffer.getInt(position + MetricBuffer.CLIENT_ID_OFFSET),
+                        buffer.getInt(position + MetricBuffer.POINT_OFFSET)), buffer.getLong(position + MetricBuffer.LATENCY_OFFSET), currentEpoch);
+                aggregated++;
+            } catch (RuntimeException e) {
+                drop("aggregateBatch", e);
+            }
+        }
+        return aggregated;
+    }
+
+    public void record(int clientId, int point, long latency) {
+        localShard.get().record(MetricAggregationMap.pack(clientId, point), latency, epoch);
+    }
+
+    /**
+     * @return the latest latency of the snapshot, or Long.MIN_VALUE if the key is not exists
+     */
+    public long getLatency(int clientId, int point) {
+        long key = MetricAggregationMap.pack(clientId, point);
+        while (true) {
+            Snapshot snapshot = published;
+            long version = snapshot.version;
+            long latency = snapshot.latest(key);
+            VarHandle.loadLoadFence();
+            if (snapshot.version == version && (version & 1) == 0) {
+                return latency;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * @return the summary of the key in the snapshot, or null if the key is not exists
+     */
+    public LatencyHistogram.Summary getLatencySummary(int clientId, int point) {
+        long key = MetricAggregationMap.pack(clientId, point);
+        while (true) {
+            Snapshot snapshot = published;
+            long version = snapshot.version;
+            LatencyHistogram.Summary summary = snapshot.summary(key);
+            VarHandle.loadLoadFence();
+            if (snapshot.version == version && (version & 1) == 0) {
+                return summary;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * @return how old the published snapshot is, in nanoseconds
+     */
+    public long stalenessNanos() {
+        return System.nanoTime() - published.takenAt;
+    }
+
+    public long maxStalenessNanos() {
+        return maxStalenessNanos;
+    }
+
+    /**
+     * @return the number of shards of the live threads, the shards of the finished threads are folded at the next merge
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return the number of merges that failed and left the previous snapshot published
+     */
+    public long getFailedMergeCount() {
+        return failedMergeCount.get();
+    }
+
+    /**
+     * Rebuild and publish the snapshot now instead of waiting for the next period
+     */
+    public void mergeNow() {
+        try {
+            merger.submit(this::merge).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to merge the shards", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        merger.shutdownNow();
+    }
+
+    private void mergeQuietly() {
+        try {
+            merge();
+        } catch (Exception e) {
+            log.error("Error in merge: {}, failed merges: {}", e.getMessage(), failedMergeCount.get());
+        }
+    }
+
+    /**
+     * Runs on the merger thread only
+     */
+    private void merge() {
+        try {
+            retireFinishedShards();
+            long mergeEpoch = epoch;
+            epoch = mergeEpoch + 1;
+            long takenAt = System.nanoTime();
+            if (back.capacity() < published.capacity()) {
+                back = new Snapshot(published.capacity());
+            }
+            while (!rebuild(back, takenAt)) {
+                // More keys than the snapshot holds, start over in one twice as large
+                back = new Snapshot(back.capacity() * 2);
+            }
+            Snapshot snapshot = back;
+            back = published;
+            published = snapshot;
+        } catch (RuntimeException | Error e) {
+            failedMergeCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * The end of a thread happens-before isAlive() returns false, so the merger sees the last records of its shard
+     */
+    private void retireFinishedShards() {
+        for (Registration registration : shards) {
+            if (registration.isFinished()) {
+                retired.fold(registration.shard);
+                shards.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * @return false if the snapshot is too small for all the keys, it is not published then
+     */
+    private boolean rebuild(Snapshot snapshot, long takenAt) {
+        snapshot.beginRebuild();
+        boolean rebuilt = false;
+        try {
+            for (Registration registration : shards) {
+                MetricShard.Table shard = registration.shard.table();
+                for (int i = 0; i < shard.capacity(); i++) {
+                    long key = shard.keyAt(i);
+                    if (key != MetricAggregationMap.EMPTY_KEY && !snapshot.contains(key) && !mergeKey(snapshot, key)) {
+                        return false;
+                    }
+                }
+            }
+            for (Long2ObjectHashMap<LatencyHistogram>.KeyIterator keys = retired.histograms.keySet().iterator(); keys.hasNext(); ) {
+                long key = keys.nextLong();
+                if (!snapshot.contains(key) && !mergeKey(snapshot, key)) {
+                    return false;
+                }
+            }
+            rebuilt = true;
+            return true;
+        } finally {
+            // A failed rebuild is never published and stays odd, a reader still holding it retries on the published one
+            if (rebuilt) {
+                snapshot.endRebuild(takenAt);
+            }
+        }
+    }
+
+    private boolean mergeKey(Snapshot snapshot, long key) {
+        Arrays.fill(scratch, 0);
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long latest = MetricAccumulator.MISSING_VALUE;
+        long latestEpoch = Long.MIN_VALUE;
+        for (Registration registration : shards) {
+            MetricShard.Table shard = registration.shard.table();
+            int index = shard.find(key);
+            if (index < 0) {
+                continue;
+            }
+            LatencyHistogram histogram = shard.histogramAt(index);
+            histogram.addCountsTo(scratch);
+            sum += histogram.sum();
+            min = Math.min(min, histogram.min());
+            max = Math.max(max, histogram.max());
+            long shardEpoch = shard.latestEpochAt(index);
+            if (shardEpoch > latestEpoch) {
+                latestEpoch = shardEpoch;
+                latest = shard.latestAt(index);
+            }
+        }
+        LatencyHistogram histogram = retired.histograms.get(key);
+        if (histogram != null) {
+            histogram.addCountsTo(scratch);
+            sum += histogram.sum();
+            min = Math.min(min, histogram.min());
+            max = Math.max(max, histogram.max());
+            long retiredEpoch = retired.latestEpochs.get(key);
+            if (retiredEpoch > latestEpoch) {
+                latest = retired.latest.get(key);
+            }
+        }
+        return snapshot.put(key, latest, LatencyHistogram.summarize(scratch, sum, min, max));
+    }
+
+    /**
+     * A shard and the thread that writes it, the thread is weakly referenced so the registry does not keep it alive
+     */
+    private static final class Registration {
+        private final WeakReference<Thread> owner;
+        private final MetricShard shard;
+
+        Registration(Thread owner, MetricShard shard) {
+            this.owner = new WeakReference<>(owner);
+            this.shard = shard;
+        }
+
+        boolean isFinished() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    /**
+     * The aggregates of the shards whose threads have finished, read and written by the merger thread only
+     */
+    private static final class Retired {
+        private final Long2ObjectHashMap<LatencyHistogram> histograms = new Long2ObjectHashMap<>();
+        private final Long2LongHashMap latest = new Long2LongHashMap(MetricAccumulator.MISSING_VALUE);
+        private final Long2LongHashMap latestEpochs = new Long2LongHashMap(Long.MIN_VALUE);
+
+        void fold(MetricShard finished) {
+            MetricShard.Table shard = finished.table();
+            for (int i = 0; i < shard.capacity(); i++) {
+                long key = shard.keyAt(i);
+                if (key == MetricAggregationMap.EMPTY_KEY) {
+                    continue;
+                }
+                LatencyHistogram histogram = histograms.get(key);
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    histograms.put(key, histogram);
+                }
+                histogram.merge(shard.histogramAt(i));
+                long shardEpoch = shard.latestEpochAt(i);
+                if (shardEpoch >= latestEpochs.get(key)) {
+                    latestEpochs.put(key, shardEpoch);
+                    latest.put(key, shard.latestAt(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * A read-only view of all the shards, rebuilt in place by the merger once it is the back buffer again
+     */
+    private static final class Snapshot {
+        // latest, count, min, max, mean (double bits), p50, p90, p99, p99.9
+        private static final int ROW_LENGTH = 9;
+
+        private final long[] keys;
+        private final long[] rows;
+        private final int mask;
+        private final int capacity;
+        private int size;
+        // Odd while the merger rebuilds it
+        private volatile long version;
+        private volatile long takenAt = System.nanoTime();
+
+        /**
+         * @param capacity the number of keys, the table is twice as large so the probes stay short
+         */
+        Snapshot(int capacity) {
+            if (capacity <= 0 || capacity > 1 << 29) {
+                throw new IllegalArgumentException("capacity must be in (0, 2^29]: " + capacity);
+            }
+            int length = 1 << -Integer.numberOfLeadingZeros(capacity * 2 - 1);
+            this.capacity = length >>> 1;
+            keys = new long[length];
+            rows = new long[length * ROW_LENGTH];
+            mask = length - 1;
+            Arrays.fill(keys, MetricAggregationMap.EMPTY_KEY);
+        }
+
+        void beginRebuild() {
+            // A failed rebuild left the version odd, it must change all the same
+            version += (version & 1) == 0 ? 1 : 2;
+            // The readers must see the odd version before any row changes
+            VarHandle.storeStoreFence();
+            Arrays.fill(keys, MetricAggregationMap.EMPTY_KEY);
+            size = 0;
+        }
+
+        void endRebuild(long takenAt) {
+            this.takenAt = takenAt;
+            version++;
+        }
+
+        boolean contains(long key) {
+            return find(key) >= 0;
+        }
+
+        int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return false if the snapshot already holds capacity keys
+         */
+        boolean put(long key, long latest, LatencyHistogram.Summary summary) {
+            if (size == capacity) {
+                return false;
+            }
+            size++;
+            int index = Hashing.hash(key, mask);
+            while (keys[index] != MetricAggregationMap.EMPTY_KEY) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            int row = index * ROW_LENGTH;
+            rows[row] = latest;
+            rows[row + 1] = summary.count();
+            rows[row + 2] = summary.min();
+            rows[row + 3] = summary.max();
+            rows[row + 4] = Double.doubleToRawLongBits(summary.mean());
+            rows[row + 5] = summary.p50();
+            rows[row + 6] = summary.p90();
+            rows[row + 7] = summary.p99();
+            rows[row + 8] = summary.p999();
+            return true;
+        }
+
+        long latest(long key) {
+            int index = find(key);
+            return index < 0 ? MetricAccumulator.MISSING_VALUE : rows[index * ROW_LENGTH];
+        }
+
+        LatencyHistogram.Summary summary(long key) {
+            int index = find(key);
+            if (index < 0) {
+                return null;
+            }
+            int row = index * ROW_LENGTH;
+            return new LatencyHistogram.Summary(rows[row + 1], rows[row + 2], rows[row + 3], Double.longBitsToDouble(rows[row + 4]),
+                    rows[row + 5], rows[row + 6], rows[row + 7], rows[row + 8]);
+        }
+
+        /**
+         * A reader may run into a snapshot the merger is clearing, the probe is bounded and the caller checks the version
+         */
+        private int find(long key) {
+            int index = Hashing.hash(key, mask);
+            for (int probe = 0; probe <= mask; probe++) {
+                long current = keys[index];
+                if (current == key) {
+                    return index;
+                }
+                if (current == MetricAggregationMap.EMPTY_KEY) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = 4;
+        int recordsPerThread = 5_000_000;
+        // Every thread hammers the same 32 hot keys, the worst case for the shared map
+        for (int round = 0; round < 3; round++) {
+            MetricHistogramMap shared = new MetricHistogramMap(1 << 10);
+            long sharedNanos = run(threads, recordsPerThread, (clientId, point, latency) ->
+                    shared.record(MetricAggregationMap.pack(clientId, point), latency));
+
+            try (ShardedMetricAggregator sharded = new ShardedMetricAggregator(1 << 10, 100, TimeUnit.MILLISECONDS)) {
+                long shardedNanos = run(threads, recordsPerThread, sharded::record);
+                sharded.mergeNow();
+                log.info("round {}: shared map {} M records/s, sharded {} M records/s, shards: {}, staleness: {} ms, clientId 3 point 1: {}",
+                        round, String.format("%.1f", (double) threads * recordsPerThread * 1_000 / sharedNanos),
+                        String.format("%.1f", (double) threads * recordsPerThread * 1_000 / shardedNanos),
+                        sharded.shardCount(), sharded.stalenessNanos() / 1_000_000, sharded.getLatencySummary(3, 1));
+            }
+        }
+
+        // The readers never wait for the merger and never see a value older than the maximum staleness
+        try (ShardedMetricAggregator sharded = new ShardedMetricAggregator(1 << 10, 50, TimeUnit.MILLISECONDS)) {
+            byte[] record = new byte[MetricBuffer.LENGTH];
+            MetricBuffer writer = new MetricBuffer(ByteBuffer.wrap(record));
+            writer.putInt(MetricBuffer.CLIENT_ID_OFFSET, 9);
+            writer.putInt(MetricBuffer.POINT_OFFSET, 2);
+            writer.putLong(MetricBuffer.LATENCY_OFFSET, 12_345);
+            sharded.aggregateMetrics(record);
+            log.info("right after the record: {}", sharded.getLatency(9, 2));
+            Thread.sleep(100);
+            log.info("after the maximum staleness: {}, staleness: {} ms", sharded.getLatency(9, 2), sharded.stalenessNanos() / 1_000_000);
+        }
+    }
+
+    private interface Recorder {
+        void record(int clientId, int point, long latency);
+    }
+
+    private static long run(int threads, int recordsPerThread, Recorder recorder) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executorService.execute(() -> {
+                Random random = new Random();
+                for (int i = 0; i < recordsPerThread; i++) {
+                    recorder.record(i & 15, (i >>> 4) & 1, 1_000 + random.nextInt(1_000));
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        executorService.shutdown();
+        return elapsed;
+    }
+}
@@ -0,0 +1,353 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.collections.MutableInteger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author lzn
+ * @date 2026/10/18 02:30
+ * Streaming top-K of the busiest and of the slowest (clientId, point) keys, in bounded memory and without a scan of the key set
+ *
+ * <p>
+ * 1. The ingest threads offer every record. For the counts only every sampleInterval-th record of a thread is sampled,
+ * and a sample is dropped if another thread holds the lock, so the ingest never waits for it
+ * 2. Busiest: the Space-Saving algorithm over 8 x K counters, a new key takes the place of the key with the lowest count
+ * and inherits that count as its error, so a key that is really among the K busiest is never lost
+ * 3. Slowest: 8 x K candidates, a key gets in with a recent tail record, its score is the highest latency it recorded
+ * with the weight halved every half-life since. A tail record is too rare to be sampled, so every record is checked,
+ * but against the threshold and the lowest score of a full candidate set with one volatile read, only a record above both
+ * tries the lock, and it is dropped like a count sample if the lock is taken
+ * 4. The score only admits a candidate, the query ranks the candidates by the p99 of their histogram in the source map
+ * and keeps those at or above the threshold. A single outlier makes a key a candidate, but it does not move its p99,
+ * so it does not make the key slow. The p99 of 8 x K histograms is the whole cost of a query
+ * 5. Both sets are about right now: every half-life all the scores are halved, so a key that stops being busy or having
+ * a slow tail sinks and is replaced, one spike no longer pins a key forever. Halving keeps the order, so the heaps stay valid.
+ * The decay is applied by whichever thread holds the lock once a half-life has passed, there is no timer thread
+ * 6. Both are min-heaps indexed by key, an update is O(log K) and allocates nothing
+ * <p>
+ * The counts are estimates: the decayed sampled count times the sample interval, with the Space-Saving error included
+ */
+@Slf4j
+public class TopKTracker {
+
+    private static final int CANDIDATES_PER_RESULT = 8;
+
+    private final MetricHistogramMap source;
+    private final int k;
+    private final int sampleInterval;
+    private final long slowThreshold;
+    private final long halfLifeNanos;
+    private final ThreadLocal<MutableInteger> sampleCountdown;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final KeyHeap busiest;
+    private final KeyHeap slowest;
+    private volatile long slowFloor = Long.MIN_VALUE;
+    // Guarded by the lock
+    private long lastDecayNanos = System.nanoTime();
+
+    /**
+     * @param source         the map the latencies are recorded in, its histograms rank the slow candidates
+     * @param k              the largest K the queries return
+     * @param sampleInterval sample one record out of that many per thread
+     * @param slowThreshold  the smallest latency that makes a key a slow candidate, and the smallest p99 a slow key reports
+     * @param halfLife       how long until a count or a tail latency weighs half as much
+     */
+    public TopKTracker(MetricHistogramMap source, int k, int sampleInterval, long slowThreshold, long halfLife, TimeUnit unit) {
+        if (k <= 0 || sampleInterval <= 0 || halfLife <= 0) {
+            throw new IllegalArgumentException("k, sampleInterval and halfLife must be positive");
+        }
+        this.source = source;
+        this.k = k;
+        this.sampleInterval = sampleInterval;
+        this.slowThreshold = slowThreshold;
+        this.halfLifeNanos = unit.toNanos(halfLife);
+        this.sampleCountdown = ThreadLocal.withInitial(() -> new MutableInteger(sampleInterval));
+        this.busiest = new KeyHeap(k * CANDIDATES_PER_RESULT);
+        this.slowest = new KeyHeap(k * CANDIDATES_PER_RESULT);
+    }
+
+    public void offer(long key, long latency) {
+        if (latency >= slowThreshold && latency > slowFloor && lock.tryLock()) {
+            try {
+                decayIfDue();
+                slowest.offerMax(key, latency);
+                slowFloor = slowest.floor();
+            } finally {
+                lock.unlock();
+            }
+        }
+        MutableInteger countdown = sampleCountdown.get();
+        if (--countdown.value > 0) {
+            return;
+        }
+        countdown.value = sampleInterval;
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            decayIfDue();
+            busiest.increment(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Halve all the scores once per half-life that has passed, called with the lock held
+     */
+    private void decayIfDue() {
+        long elapsed = System.nanoTime() - lastDecayNanos;
+        if (elapsed < halfLifeNanos) {
+            return;
+        }
+        long halvings = elapsed / halfLifeNanos;
+        int shift = (int) Math.min(halvings, Long.SIZE - 1);
+        busiest.decay(shift);
+        slowest.decay(shift);
+        lastDecayNanos += halvings * halfLifeNanos;
+        slowFloor = slowest.floor();
+    }
+
+    /**
+     * @return up to k keys with the highest estimated record count, the busiest first
+     */
+    public List<HeavyHitter> busiest(int k) {
+        List<HeavyHitter> result;
+        lock.lock();
+        try {
+            decayIfDue();
+            result = busiest.toList(sampleInterval);
+        } finally {
+            lock.unlock();
+        }
+        result.sort(Comparator.comparingLong(HeavyHitter::value).reversed());
+        return result.subList(0, Math.min(Math.min(k, this.k), result.size()));
+    }
+
+    /**
+     * @return up to k of the recent slow candidates with the highest p99 at or above the threshold, the slowest first
+     */
+    public List<HeavyHitter> slowest(int k) {
+        List<HeavyHitter> candidates;
+        lock.lock();
+        try {
+            decayIfDue();
+            candidates = slowest.toList(1);
+        } finally {
+            lock.unlock();
+        }
+        // Ranked outside of the lock, a candidate costs one summary of its histogram
+        List<HeavyHitter> result = new ArrayList<>(candidates.size());
+        for (HeavyHitter candidate : candidates) {
+            LatencyHistogram.Summary summary = source.summary(MetricAggregationMap.pack(candidate.clientId(), candidate.point()));
+            if (summary != null && summary.p99() >= slowThreshold) {
+                result.add(new HeavyHitter(candidate.clientId(), candidate.point(), summary.p99()));
+            }
+        }
+        result.sort(Comparator.comparingLong(HeavyHitter::value).reversed());
+        return result.subList(0, Math.min(Math.min(k, this.k), result.size()));
+    }
+
+    /**
+     * A min-heap of keys and scores, with the position of every key for the updates, guarded by the lock of the tracker
+     */
+    private static final class KeyHeap {
+        private final long[] keys;
+        private final long[] scores;
+        private final Long2LongHashMap positions;
+        private int size;
+
+        KeyHeap(int capacity) {
+            keys = new long[capacity];
+            scores = new long[capacity];
+            positions = new Long2LongHashMap(capacity * 2, 0.65f, -1);
+        }
+
+        /**
+         * Space-Saving: count the key, or replace the key with the lowest count and start from that count
+         */
+        void increment(long key) {
+            int position = (int) positions.get(key);
+            if (position >= 0) {
+                scores[position]++;
+                siftDown(position);
+            } else if (size < keys.length) {
+                add(key, 1);
+            } else {
+                replaceMin(key, scores[0] + 1);
+            }
+        }
+
+        /**
+         * Keep the highest score of the key, a new key replaces the lowest score only if it is higher
+         */
+        void offerMax(long key, long score) {
+            int position = (int) positions.get(key);
+            if (position >= 0) {
+                if (score > scores[position]) {
+                    scores[position] = score;
+                    siftDown(position);
+                }
+            } else if (size < keys.length) {
+                add(key, score);
+            } else if (score > scores[0]) {
+                replaceMin(key, score);
+            }
+        }
+
+        /**
+         * Divide every score by 2^shift, a monotone change that keeps the heap order
+         */
+        void decay(int shift) {
+            for (int i = 0; i < size; i++) {
+                scores[i] >>= shift;
+            }
+        }
+
+        /**
+         * @return the lowest score once the heap is full, a lower score can not enter it
+         */
+        long floor() {
+            return size < keys.length ? Long.MIN_VALUE : scores[0];
+        }
+
+        List<HeavyHitter> toList(long scale) {
+            List<HeavyHitter> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(new HeavyHitter(MetricAggregationMap.clientId(keys[i]), MetricAggregationMap.point(keys[i]), scores[i] * scale));
+            }
+            return list;
+        }
+
+        private void add(long key, long score) {
+            int position = size++;
+            keys[position] = key;
+            scores[position] = score;
+            positions.put(key, position);
+            siftUp(position);
+        }
+
+        private void replaceMin(long key, long score) {
+            positions.remove(keys[0]);
+            keys[0] = key;
+            scores[0] = score;
+            positions.put(key, 0);
+            siftDown(0);
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (scores[parent] <= scores[position]) {
+                    return;
+                }
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                int left = 2 * position + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == position) {
+                    return;
+                }
+                swap(position, smallest);
+                position = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long key = keys[i];
+            long score = scores[i];
+            keys[i] = keys[j];
+            scores[i] = scores[j];
+            keys[j] = key;
+            scores[j] = score;
+            positions.put(keys[i], i);
+            positions.put(keys[j], j);
+        }
+    }
+
+    /**
+     * A key of a top-K result, the value is the estimated count or the p99 latency
+     */
+    public static final class HeavyHitter {
+        private final int clientId;
+        private final int point;
+        private final long value;
+
+        HeavyHitter(int clientId, int point, long value) {
+            this.clientId = clientId;
+            this.point = point;
+            this.value = value;
+        }
+
+        public int clientId() {
+            return clientId;
+        }
+
+        public int point() {
+            return point;
+        }
+
+        public long value() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + clientId + ", " + point + ")=" + value;
+        }
+    }
+
+    public static void main(String[] args) {
+        MetricHistogramMap aggregates = new MetricHistogramMap(1 << 16);
+        TopKTracker topK = new TopKTracker(aggregates, 5, 16, 50_000, 1, TimeUnit.SECONDS);
+        Random random = new Random(42);
+        // 20k keys: (i, 0) for i < 5 take half of the traffic, (100 + i, 1) for i < 5 have a slow tail
+        for (int n = 0; n < 5_000_000; n++) {
+            int clientId;
+            int point;
+            if (random.nextBoolean()) {
+                clientId = random.nextInt(5);
+                point = 0;
+            } else {
+                clientId = random.nextInt(10_000);
+                point = 1 + random.nextInt(2);
+            }
+            long latency = 1_000 + random.nextInt(20_000);
+            if (point == 1 && clientId >= 100 && clientId < 105 && random.nextInt(20) == 0) {
+                latency = 100_000L * (clientId - 99);
+            }
+            long key = MetricAggregationMap.pack(clientId, point);
+            aggregates.record(key, latency);
+            topK.offer(key, latency);
+        }
+        log.info("keys: {}", aggregates.size());
+        log.info("busiest: {}", topK.busiest(5));
+        log.info("slowest by p99: {}", topK.slowest(5));
+
+        // One spike of the busy key (3, 0) makes it a candidate, but its p99 stays low, so it is not reported as slow
+        long spiked = MetricAggregationMap.pack(3, 0);
+        aggregates.record(spiked, 10_000_000);
+        topK.offer(spiked, 10_000_000);
+        log.info("after a spike of (3, 0): {}", topK.slowest(5));
+    }
+}
@@ -0,0 +1,215 @@
+package unsafeBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.concurrent.NanoClock;
+import org.agrona.concurrent.SystemNanoClock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @author lzn
+ * @date 2026/10/18 01:00
+ * Rolling time windows of latencies per packed (clientId, point) key, for views like the last 1s, 10s and 1m
+ *
+ * <p>
+ * 1. Time is cut into buckets of a fixed duration, every key has a ring of bucketCount preallocated histograms,
+ * the bucket of epoch e (the number of bucket durations since the start) lives at index e % bucketCount
+ * 2. When the clock moves on, the first thread that records into a bucket still holding an older epoch claims it with a CAS,
+ * resets the histogram in place and publishes the new epoch, the other threads wait for the few hundred stores of the reset,
+ * an expired bucket is always reused and never reallocated
+ * 3. A sliding window merges the buckets of the last N durations, the current partial bucket included,
+ * a tumbling window merges the buckets of the last complete window aligned to its own length
+ * 4. A query only reads the buckets of the window, and skips a bucket that is rotated while it reads it
+ * <p>
+ * A record older than the whole ring is dropped. A thread stalled for longer than the ring between reading the clock
+ * and recording may record into the bucket of a newer epoch, which is harmless for rolling views
+ */
+@Slf4j
+public class WindowedMetricAggregator {
+
+    private static final VarHandle STATES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final MetricAggregationMap slots;
+    private final Supplier<KeyWindow> windowFactory;
+    private final long bucketNanos;
+    private final int bucketCount;
+    private final NanoClock clock;
+    private final long origin;
+
+    public WindowedMetricAggregator(int capacity, long bucketDuration, TimeUnit unit, int bucketCount) {
+        this(capacity, bucketDuration, unit, bucketCount, SystemNanoClock.INSTANCE);
+    }
+
+    /**
+     * @param bucketCount the number of buckets of a key, the longest sliding window is bucketCount buckets
+     *                    and the longest tumbling window is half of it
+     */
+    public WindowedMetricAggregator(int capacity, long bucketDuration, TimeUnit unit, int bucketCount, NanoClock clock) {
+        if (bucketDuration <= 0 || bucketCount < 2) {
+            throw new IllegalArgumentException("bucketDuration must be positive and bucketCount at least 2");
+        }
+        this.slots = new MetricAggregationMap(capacity, Long.MIN_VALUE, true);
+        this.windowFactory = () -> new KeyWindow(bucketCount);
+        this.bucketNanos = unit.toNanos(bucketDuration);
+        this.bucketCount = bucketCount;
+        this.clock = clock;
+        this.origin = clock.nanoTime();
+    }
+
+    public void record(int clientId, int point, long latency) {
+        long key = MetricAggregationMap.pack(clientId, point);
+        slots.putAndAttach(key, latency, windowFactory).record(currentEpoch(), latency);
+    }
+
+    /**
+     * @return the records of the last duration, the current partial bucket included,
+     * or null if the key is not exists
+     */
+    public LatencyHistogram.Summary sliding(int clientId, int point, long duration, TimeUnit unit) {
+        int buckets = bucketsOf(duration, unit, bucketCount);
+        long current = currentEpoch();
+        return summary(clientId, point, current - buckets + 1, current);
+    }
+
+    /**
+     * @return the records of the last complete window of the given duration, the windows are aligned to their duration,
+     * or null if the key is not exists
+     */
+    public LatencyHistogram.Summary tumbling(int clientId, int point, long duration, TimeUnit unit) {
+        int buckets = bucketsOf(duration, unit, bucketCount / 2);
+        long start = (currentEpoch() / buckets - 1) * buckets;
+        return summary(clientId, point, start, start + buckets - 1);
+    }
+
+    public long bucketNanos() {
+        return bucketNanos;
+    }
+
+    public int bucketCount() {
+        return bucketCount;
+    }
+
+    private LatencyHistogram.Summary summary(int clientId, int point, long fromEpoch, long toEpoch) {
+        KeyWindow window = slots.attachment(MetricAggregationMap.pack(clientId, point));
+        return window == null ? null : window.summary(Math.max(0, fromEpoch), toEpoch);
+    }
+
+    private int bucketsOf(long duration, TimeUnit unit, int maxBuckets) {
+        long nanos = unit.toNanos(duration);
+        if (nanos <= 0 || nanos % bucketNanos != 0 || nanos / bucketNanos > maxBuckets) {
+            throw new IllegalArgumentException("the window must be a multiple of the bucket duration and at most "
+                    + maxBuckets + " buckets: " + duration + " " + unit);
+        }
+        return (int) (nanos / bucketNanos);
+    }
+
+    private long currentEpoch() {
+        return (clock.nanoTime() - origin) / bucketNanos;
+    }
+
+    /**
+     * The ring of buckets of one key, a bucket state is its epoch shifted left by one, with the low bit set during a reset
+     */
+    private static final class KeyWindow {
+        private static final long RESETTING = 1;
+
+        private final LatencyHistogram[] buckets;
+        private final long[] states;
+
+        KeyWindow(int bucketCount) {
+            buckets = new LatencyHistogram[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new LatencyHistogram();
+            }
+            states = new long[bucketCount];
+            // Epoch -1, older than any epoch of the clock
+            Arrays.fill(states, -1L << 1);
+        }
+
+        void record(long epoch, long latency) {
+            int i = (int) (epoch % buckets.length);
+            long current = epoch << 1;
+            while (true) {
+                long state = (long) STATES.getAcquire(states, i);
+                if (state == current) {
+                    buckets[i].record(latency);
+                    return;
+                }
+                if ((state & RESETTING) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (state > current) {
+                    // Older than the whole ring
+                    return;
+                }
+                if (STATES.compareAndSet(states, i, state, current | RESETTING)) {
+                    buckets[i].reset();
+                    STATES.setRelease(states, i, current);
+                }
+            }
+        }
+
+        LatencyHistogram.Summary summary(long fromEpoch, long toEpoch) {
+            long[] counts = new long[LatencyHistogram.BUCKETS];
+            long[] bucketCounts = new long[LatencyHistogram.BUCKETS];
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (long epoch = fromEpoch; epoch <= toEpoch; epoch++) {
+                int i = (int) (epoch % buckets.length);
+                long state = epoch << 1;
+                if ((long) STATES.getAcquire(states, i) != state) {
+                    continue;
+                }
+                Arrays.fill(bucketCounts, 0);
+                LatencyHistogram bucket = buckets[i];
+                bucket.addCountsTo(bucketCounts);
+                long bucketSum = bucket.sum();
+                long bucketMin = bucket.min();
+                long bucketMax = bucket.max();
+                VarHandle.loadLoadFence();
+                if ((long) STATES.getVolatile(states, i) != state) {
+                    // Rotated to a newer epoch while it was read
+                    continue;
+                }
+                for (int b = 0; b < LatencyHistogram.BUCKETS; b++) {
+                    counts[b] += bucketCounts[b];
+                }
+                sum += bucketSum;
+                min = Math.min(min, bucketMin);
+                max = Math.max(max, bucketMax);
+            }
+            return LatencyHistogram.summarize(counts, sum, min, max);
+        }
+    }
+
+    public static void main(String[] args) {
+        // A manual clock, so the demo moves through a few minutes at once
+        long[] now = {0};
+        WindowedMetricAggregator windows = new WindowedMetricAggregator(1 << 10, 1, TimeUnit.SECONDS, 120, () -> now[0]);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        // 3 minutes of traffic, the latency of clientId 1 point 0 is the minute number times 1000 plus the second
+        for (int s = 0; s < 180; s++) {
+            now[0] = s * second;
+            for (int i = 0; i < 100; i++) {
+                windows.record(1, 0, (s / 60 + 1) * 1_000L + s % 60);
+            }
+        }
+        now[0] = 180 * second - 1;
+        log.info("sliding 1s: {}", windows.sliding(1, 0, 1, TimeUnit.SECONDS));
+        log.info("sliding 10s: {}", windows.sliding(1, 0, 10, TimeUnit.SECONDS));
+        log.info("sliding 1m: {}", windows.sliding(1, 0, 1, TimeUnit.MINUTES));
+        log.info("sliding 2m: {}", windows.sliding(1, 0, 2, TimeUnit.MINUTES));
+        log.info("tumbling 10s: {}", windows.tumbling(1, 0, 10, TimeUnit.SECONDS));
+        log.info("tumbling 1m: {}", windows.tumbling(1, 0, 1, TimeUnit.MINUTES));
+
+        // No record for a while: the windows empty out and nothing is allocated for it
+        now[0] = 300 * second;
+        log.info("sliding 1m after 2 idle minutes: {}", windows.sliding(1, 0, 1, TimeUnit.MINUTES));
+    }
+}